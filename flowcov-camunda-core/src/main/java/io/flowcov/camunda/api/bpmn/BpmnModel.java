@@ -31,6 +31,7 @@ import java.util.List;
 public class BpmnModel {
 
     private String bpmnXml;
+    private String bpmnXmlRef;
     private String name;
     private String version;
     private String processDefinitionKey;
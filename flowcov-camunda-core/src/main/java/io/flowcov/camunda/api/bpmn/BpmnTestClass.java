@@ -34,4 +34,6 @@ public class BpmnTestClass {
 
     @Builder.Default
     private List<BpmnTestMethod> testMethods = new ArrayList<>();
+
+    private List<ExecutionPath> paths;
 }
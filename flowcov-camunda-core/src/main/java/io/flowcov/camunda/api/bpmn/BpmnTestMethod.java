@@ -37,4 +37,8 @@ public class BpmnTestMethod {
 
     @Builder.Default
     private Collection<SequenceFlow> sequenceFlows = new ArrayList<>();
+
+    private Collection<TraceRun> traceRuns;
+
+    private Collection<ExecutionPath> paths;
 }
@@ -29,7 +29,9 @@ public class FlowNode {
 
     private String key;
     private String type;
-    private Integer executionStartCounter;
-    private Integer executionEndCounter;
+    private Long executionStartCounter;
+    private Long executionEndCounter;
+    private Long startCount;
+    private Long endCount;
 
 }
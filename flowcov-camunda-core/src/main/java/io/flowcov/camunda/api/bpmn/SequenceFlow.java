@@ -30,5 +30,6 @@ public class SequenceFlow {
     private String key;
     private String instanceId;
     private long executionStartCounter;
+    private Long takeCount;
 
 }
@@ -31,6 +31,7 @@ import java.util.List;
 public class DmnModel {
 
     private String dmnXml;
+    private String dmnXmlRef;
     private String name;
     private String decisionKey;
     private String version;
@@ -23,7 +23,9 @@ import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Data
 @Builder
@@ -37,4 +39,7 @@ public class DmnTestClass {
 
     @Builder.Default
     private List<DmnTestMethod> testMethods = new ArrayList<>();
+
+    @Builder.Default
+    private Map<String, Long> ruleHitCounts = new LinkedHashMap<>();
 }
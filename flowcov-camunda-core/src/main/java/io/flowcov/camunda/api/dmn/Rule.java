@@ -28,4 +28,5 @@ import lombok.NoArgsConstructor;
 public class Rule {
     private String key;
     long timestamp;
+    private long hitCount;
 }
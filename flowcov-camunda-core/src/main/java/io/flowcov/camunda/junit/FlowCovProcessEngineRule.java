@@ -17,17 +17,24 @@
 package io.flowcov.camunda.junit;
 
 import io.flowcov.camunda.listeners.CompensationEventCoverageHandler;
+import io.flowcov.camunda.listeners.CoverageDeployer;
 import io.flowcov.camunda.listeners.CoverageHistoryEventHandler;
 import io.flowcov.camunda.listeners.ElementCoverageParseListener;
+import io.flowcov.camunda.listeners.InstrumentationLevel;
 import io.flowcov.camunda.model.ClassCoverage;
-import io.flowcov.camunda.util.CoverageReportUtil;
+import io.flowcov.camunda.model.CoveredFlowNode;
+import io.flowcov.camunda.model.MethodCoverage;
+import io.flowcov.camunda.util.ReportFormat;
 import lombok.val;
 import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.history.HistoricProcessInstance;
 import org.camunda.bpm.engine.impl.bpmn.parser.BpmnParseListener;
 import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
 import org.camunda.bpm.engine.impl.event.EventHandler;
 import org.camunda.bpm.engine.repository.DecisionDefinition;
 import org.camunda.bpm.engine.repository.ProcessDefinition;
+import org.camunda.bpm.engine.runtime.ProcessInstance;
+import org.camunda.bpm.engine.test.Deployment;
 import org.camunda.bpm.engine.test.ProcessEngineRule;
 import org.hamcrest.Matcher;
 import org.junit.Assert;
@@ -59,6 +66,12 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
      */
     private boolean firstRun = true;
 
+    /**
+     * Whether the rule is also used as a class rule. Without a class rule the end of the class is never
+     * signalled and the report is written after every test method.
+     */
+    private boolean classRule;
+
     /**
      * coverageTestRunStateFactory. Can be changed for aggregated/suite coverage check
      */
@@ -69,6 +82,61 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
      */
     private List<String> excludedProcessDefinitionKeys;
 
+    /**
+     * Number of event slots if coverage is recorded asynchronously, 0 to record synchronously.
+     */
+    private int asyncRecordingCapacity;
+
+    /**
+     * Whether executions are counted per element instead of traced per activity instance.
+     */
+    private boolean countExecutions;
+
+    /**
+     * Whether executions are recorded in a compressed trace.
+     */
+    private boolean compressTraces;
+
+    /**
+     * Whether the distinct paths of the process instances are recorded.
+     */
+    private boolean recordPaths;
+
+    /**
+     * The file format of the class report.
+     */
+    private ReportFormat reportFormat = ReportFormat.JSON;
+
+    /**
+     * Whether the class report is indented.
+     */
+    private boolean prettyPrintReport;
+
+    /**
+     * Whether the class report references the model XML in the model blob store instead of embedding it.
+     */
+    private boolean deduplicateModelXml;
+
+    /**
+     * Capacity of the queue of the asynchronous report writer, 0 to write the class report synchronously.
+     */
+    private int asyncReportQueueCapacity;
+
+    /**
+     * Which flow node and sequence flow events the engine records, resolved from its parse listener.
+     */
+    private InstrumentationLevel instrumentationLevel = InstrumentationLevel.FULL;
+
+    /**
+     * Whether the deployments of the test methods are shared instead of redeployed for every method.
+     */
+    private boolean reuseDeployments;
+
+    /**
+     * The shared deployment of the current test method, if deployments are reused.
+     */
+    private SharedDeployments.SharedDeployment sharedDeployment;
+
     FlowCovProcessEngineRule() {
         super();
     }
@@ -81,6 +149,42 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
         this.excludedProcessDefinitionKeys = excludedProcessDefinitionKeys;
     }
 
+    public void setAsyncRecordingCapacity(final int asyncRecordingCapacity) {
+        this.asyncRecordingCapacity = asyncRecordingCapacity;
+    }
+
+    public void setCountExecutions(final boolean countExecutions) {
+        this.countExecutions = countExecutions;
+    }
+
+    public void setCompressTraces(final boolean compressTraces) {
+        this.compressTraces = compressTraces;
+    }
+
+    public void setRecordPaths(final boolean recordPaths) {
+        this.recordPaths = recordPaths;
+    }
+
+    public void setReportFormat(final ReportFormat reportFormat) {
+        this.reportFormat = reportFormat;
+    }
+
+    public void setPrettyPrintReport(final boolean prettyPrintReport) {
+        this.prettyPrintReport = prettyPrintReport;
+    }
+
+    public void setDeduplicateModelXml(final boolean deduplicateModelXml) {
+        this.deduplicateModelXml = deduplicateModelXml;
+    }
+
+    public void setAsyncReportQueueCapacity(final int asyncReportQueueCapacity) {
+        this.asyncReportQueueCapacity = asyncReportQueueCapacity;
+    }
+
+    public void setReuseDeployments(final boolean reuseDeployments) {
+        this.reuseDeployments = reuseDeployments;
+    }
+
     @Override
     public void starting(final Description description) {
 
@@ -92,7 +196,16 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
 
         this.initializeRunState(description);
 
-        super.starting(description);
+        // Shared deployments are only used by test methods, the @ClassRule run deploys nothing
+        if (!reuseDeployments) {
+            ElementCoverageParseListener.deployWithExclusions(processEngine, coverageTestRunState.getExcludedProcessDefinitionKeys(),
+                    () -> {
+                        super.starting(description);
+                        return deploymentId;
+                    });
+        } else if (description.isTest()) {
+            this.startingWithSharedDeployment(description);
+        }
 
         this.initializeMethodCoverage(description);
     }
@@ -100,6 +213,23 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
     @Override
     public void finished(final Description description) {
 
+        // Fold pending asynchronously recorded events into the current test method
+        coverageTestRunState.flush();
+
+        // Flow nodes never end if their ends are not recorded
+        if (description.isTest() && instrumentationLevel.isFlowNodeEnds()) {
+            this.logUnfinishedFlowNodes(description);
+        }
+
+        // Keep the shared deployment, only the instances and history of the test method are removed.
+        // Deleting the instances records their ends, which have to be folded in before the report.
+        if (sharedDeployment != null) {
+            this.resetSharedDeployment(description);
+            sharedDeployment = null;
+            deploymentId = null;
+            coverageTestRunState.flush();
+        }
+
         this.handleClassCoverage(description);
 
         // run derived finalization only of not used as a class rule
@@ -161,19 +291,15 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
         // Not a @ClassRule run and deployments present
         if (deploymentId != null) {
 
-            final List<ProcessDefinition> deployedProcessDefinitions = processEngine.getRepositoryService()
-                    .createProcessDefinitionQuery()
-                    .deploymentId(deploymentId)
-                    .list();
+            final CoverageDeployer.DeployedDefinitions deployedDefinitions = sharedDeployment != null
+                    ? sharedDeployment.getDeployedDefinitions()
+                    : CoverageDeployer.getDeployedDefinitions(processEngine, deploymentId);
 
-            final List<ProcessDefinition> relevantProcessDefinitions = deployedProcessDefinitions.stream()
-                    .filter(obj -> !this.isExcluded(obj))
+            final List<ProcessDefinition> relevantProcessDefinitions = deployedDefinitions.getProcessDefinitions().stream()
+                    .filter(obj -> !coverageTestRunState.isExcluded(obj.getKey()))
                     .collect(Collectors.toList());
 
-            final List<DecisionDefinition> decisionDefinitions = processEngine.getRepositoryService()
-                    .createDecisionDefinitionQuery()
-                    .deploymentId(deploymentId)
-                    .list();
+            final List<DecisionDefinition> decisionDefinitions = deployedDefinitions.getDecisionDefinitions();
 
 
             //Hier auch nach DMN suchen
@@ -188,6 +314,68 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
         }
     }
 
+    /**
+     * Uses the shared deployment of the test method resources instead of deploying them for the method.
+     *
+     * @param description
+     */
+    private void startingWithSharedDeployment(final Description description) {
+
+        Deployment deploymentAnnotation = description.getAnnotation(Deployment.class);
+        for (Class<?> testClass = description.getTestClass(); deploymentAnnotation == null && testClass != Object.class;
+             testClass = testClass.getSuperclass()) {
+            deploymentAnnotation = testClass.getAnnotation(Deployment.class);
+        }
+
+        sharedDeployment = SharedDeployments.getDeployment(processEngine, description.getTestClass(),
+                description.getMethodName(), deploymentAnnotation, excludedProcessDefinitionKeys);
+        deploymentId = sharedDeployment != null ? sharedDeployment.getDeploymentId() : null;
+    }
+
+    /**
+     * Deletes the process instances the test method left in the shared deployment and the historic process
+     * and decision instances of the deployment. Jobs and history not bound to an instance are kept, see
+     * {@link FlowCovProcessEngineRuleBuilder#reuseDeployments()}. The ends of the deleted process instances
+     * are still recorded for the test method.
+     *
+     * @param description
+     */
+    private void resetSharedDeployment(final Description description) {
+
+        final List<String> processInstanceIds = processEngine.getRuntimeService()
+                .createProcessInstanceQuery()
+                .deploymentId(sharedDeployment.getDeploymentId())
+                .rootProcessInstances()
+                .list()
+                .stream()
+                .map(ProcessInstance::getId)
+                .collect(Collectors.toList());
+
+        if (!processInstanceIds.isEmpty()) {
+            processEngine.getRuntimeService().deleteProcessInstances(processInstanceIds,
+                    description.getDisplayName() + " finished", false, true);
+        }
+
+        for (final ProcessDefinition processDefinition : sharedDeployment.getDeployedDefinitions().getProcessDefinitions()) {
+
+            final List<String> historicProcessInstanceIds = processEngine.getHistoryService()
+                    .createHistoricProcessInstanceQuery()
+                    .processDefinitionId(processDefinition.getId())
+                    .list()
+                    .stream()
+                    .map(HistoricProcessInstance::getId)
+                    .collect(Collectors.toList());
+
+            if (!historicProcessInstanceIds.isEmpty()) {
+                processEngine.getHistoryService().deleteHistoricProcessInstances(historicProcessInstanceIds);
+            }
+        }
+
+        for (final DecisionDefinition decisionDefinition : sharedDeployment.getDeployedDefinitions().getDecisionDefinitions()) {
+            processEngine.getHistoryService().deleteHistoricDecisionInstanceByDefinitionId(decisionDefinition.getId());
+        }
+    }
+
     /**
      * Initialize the coverage run state depending on the rule annotations and
      * notify the state of the current test name.
@@ -200,7 +388,18 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
         // @Rule run
         if (firstRun) {
             coverageTestRunState = coverageTestRunStateFactory.create(description.getClassName(), excludedProcessDefinitionKeys);
+            if (asyncRecordingCapacity > 0) {
+                coverageTestRunState.enableAsyncRecording(asyncRecordingCapacity);
+            }
+            coverageTestRunState.setCountExecutions(countExecutions);
+            coverageTestRunState.setCompressTraces(compressTraces);
+            coverageTestRunState.setRecordPaths(recordPaths);
+            coverageTestRunState.setReportFormat(reportFormat);
+            coverageTestRunState.setPrettyPrintReport(prettyPrintReport);
+            coverageTestRunState.setDeduplicateModelXml(deduplicateModelXml);
+            coverageTestRunState.setAsyncReportQueueCapacity(asyncReportQueueCapacity);
             this.initializeListenerRunState();
+            classRule = !description.isTest();
             firstRun = false;
         }
 
@@ -227,6 +426,7 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
             if (parseListener instanceof ElementCoverageParseListener) {
                 val listener = (ElementCoverageParseListener) parseListener;
                 listener.setCoverageTestRunState(coverageTestRunState);
+                instrumentationLevel = listener.getInstrumentationLevel();
             }
         }
 
@@ -245,10 +445,34 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
     }
 
 
-    private void handleClassCoverage(final Description description) {
+    /**
+     * Reports the flow nodes the test method started but never ended, e.g. waiting user tasks.
+     *
+     * @param description
+     */
+    private void logUnfinishedFlowNodes(final Description description) {
+
+        final MethodCoverage methodCoverage = coverageTestRunState.getTestMethodCoverage(description.getMethodName());
+        if (methodCoverage == null) {
+            return;
+        }
 
-        // If the rule is a class rule get the class coverage
-        //if (!description.isTest()) {
+        final List<CoveredFlowNode> unfinishedFlowNodes = methodCoverage.getUnfinishedFlowNodes();
+        if (!unfinishedFlowNodes.isEmpty()) {
+            logger.info(description.getDisplayName() + " left " + unfinishedFlowNodes.size() + " flow node(s) unfinished: "
+                    + unfinishedFlowNodes.stream()
+                    .map(node -> node.getProcessDefinitionKey() + ":" + node.getElementId())
+                    .collect(Collectors.joining(", ")));
+        }
+    }
+
+    /**
+     * Marks the class report dirty after each test method and writes it once at the end of the class.
+     * Without a class rule the report is written after each test method instead.
+     *
+     * @param description
+     */
+    private void handleClassCoverage(final Description description) {
 
         final ClassCoverage classCoverage = coverageTestRunState.getClassCoverage();
 
@@ -256,8 +480,13 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
         // every test method
         classCoverage.assertAllDeploymentsEqual();
 
-        // Create graphical report
-        CoverageReportUtil.createClassReport(processEngine, coverageTestRunState);
+        if (description.isTest()) {
+            coverageTestRunState.markReportDirty();
+        }
+        if (!description.isTest() || !classRule) {
+            // Create graphical report
+            coverageTestRunState.flushReport();
+        }
 
     }
 
@@ -270,13 +499,6 @@ public class FlowCovProcessEngineRule extends ProcessEngineRule {
 
     }
 
-    private boolean isExcluded(final ProcessDefinition processDefinition) {
-        if (excludedProcessDefinitionKeys != null) {
-            return excludedProcessDefinitionKeys.contains(processDefinition.getKey());
-        }
-        return false;
-    }
-
     public void setCoverageTestRunStateFactory(final FlowCovTestRunStateFactory coverageTestRunStateFactory) {
         this.coverageTestRunStateFactory = coverageTestRunStateFactory;
     }
@@ -16,6 +16,9 @@
 
 package io.flowcov.camunda.junit;
 
+import io.flowcov.camunda.recording.CoverageEventRingBuffer;
+import io.flowcov.camunda.util.AsyncReportWriter;
+import io.flowcov.camunda.util.ReportFormat;
 import org.camunda.bpm.engine.ProcessEngine;
 
 import java.util.Arrays;
@@ -80,11 +83,149 @@ public class FlowCovProcessEngineRuleBuilder {
         return this;
     }
 
+    /**
+     * Excludes process definitions from the coverage. Keys containing {@code *} or {@code ?} are glob
+     * patterns. Excluded process definitions are not instrumented when they are deployed.
+     *
+     * @param processDefinitionKeys
+     * @return
+     */
     public FlowCovProcessEngineRuleBuilder excludeProcessDefinitionKeys(final String... processDefinitionKeys) {
         rule.setExcludedProcessDefinitionKeys(Arrays.asList(processDefinitionKeys));
         return this;
     }
 
+    /**
+     * Records coverage events through a preallocated ring buffer drained by a background thread,
+     * taking the aggregation off the engine threads.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder recordAsynchronously() {
+        return this.recordAsynchronously(CoverageEventRingBuffer.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Records coverage events through a preallocated ring buffer drained by a background thread,
+     * taking the aggregation off the engine threads.
+     *
+     * @param bufferCapacity The number of event slots of the ring buffer.
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder recordAsynchronously(final int bufferCapacity) {
+        rule.setAsyncRecordingCapacity(bufferCapacity);
+        return this;
+    }
+
+    /**
+     * Counts the starts and ends of every flow node and the takes of every sequence flow instead of
+     * tracing each execution. Memory stays constant in the number of executions and the report contains
+     * a heatmap of the counts, but no execution order.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder countExecutions() {
+        rule.setCountExecutions(true);
+        return this;
+    }
+
+    /**
+     * Records the executions in a trace that collapses repeated event sequences, e.g. loop iterations
+     * and multi-instance bodies, into runs with a repeat count. The report keeps the execution order and
+     * contains each executed element once with its counts. Has no effect if executions are counted.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder compressTraces() {
+        rule.setCompressTraces(true);
+        return this;
+    }
+
+    /**
+     * Records the path of every process instance, i.e. its ordered flow node starts and sequence flow
+     * takes, and keeps only the distinct paths with their occurrence counts. Combined with
+     * {@link #countExecutions()}, test methods driving the same path many times need constant memory.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder recordPaths() {
+        rule.setRecordPaths(true);
+        return this;
+    }
+
+    /**
+     * Configures the file format of the class reports. Binary reports are much smaller and can be
+     * converted to JSON with {@link io.flowcov.camunda.util.BinaryReportConverter}.
+     *
+     * @param reportFormat
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder reportFormat(final ReportFormat reportFormat) {
+        rule.setReportFormat(reportFormat);
+        return this;
+    }
+
+    /**
+     * Indents the JSON report for human readers. Reports are written compactly by default.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder prettyPrintReport() {
+        rule.setPrettyPrintReport(true);
+        return this;
+    }
+
+    /**
+     * Writes each distinct BPMN/DMN XML once to the model blob store next to the reports and references
+     * it by its content hash instead of embedding it into every class report. The XML has to be resolved
+     * with {@link io.flowcov.camunda.util.ModelBlobStore#resolve(io.flowcov.camunda.api.Build)} before upload.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder deduplicateModelXml() {
+        rule.setDeduplicateModelXml(true);
+        return this;
+    }
+
+    /**
+     * Writes the class reports on a background thread, so the test run does not wait for report I/O.
+     * Pending reports are written before the JVM exits.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder writeReportsAsynchronously() {
+        return this.writeReportsAsynchronously(AsyncReportWriter.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Writes the class reports on a background thread, so the test run does not wait for report I/O.
+     * Pending reports are written before the JVM exits.
+     *
+     * @param queueCapacity The number of reports that may be pending before test classes wait for the writer.
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder writeReportsAsynchronously(final int queueCapacity) {
+        rule.setAsyncReportQueueCapacity(queueCapacity);
+        return this;
+    }
+
+    /**
+     * Deploys each distinct set of {@code @Deployment} resources once per process engine and keeps the
+     * deployment for all following test methods and classes instead of redeploying it for every method.
+     * The process instances a test method leaves behind are deleted when it finishes, together with their
+     * jobs, timers and variables, and so are the historic process and decision instances of the deployment.
+     * Unlike deleting the deployment, this keeps the jobs not bound to a process instance, e.g. of timer
+     * start events, and the history not bound to a process or decision instance, e.g. their job logs and
+     * the user operation log. Test classes excluding different process definitions do not share their
+     * deployments.
+     *
+     * @return
+     */
+    public FlowCovProcessEngineRuleBuilder reuseDeployments() {
+        rule.setReuseDeployments(true);
+        return this;
+    }
+
     /**
      * Builds the coverage rule.
      *
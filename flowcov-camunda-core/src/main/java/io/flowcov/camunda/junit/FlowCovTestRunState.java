@@ -17,11 +17,18 @@
 package io.flowcov.camunda.junit;
 
 import io.flowcov.camunda.model.*;
+import io.flowcov.camunda.recording.CoverageEventRingBuffer;
+import io.flowcov.camunda.util.AsyncReportWriter;
+import io.flowcov.camunda.util.CoverageReportUtil;
+import io.flowcov.camunda.util.KeyMatcher;
+import io.flowcov.camunda.util.ReportFormat;
 import org.camunda.bpm.engine.ProcessEngine;
 import org.camunda.bpm.engine.repository.DecisionDefinition;
 import org.camunda.bpm.engine.repository.ProcessDefinition;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,7 +42,7 @@ public class FlowCovTestRunState {
     /**
      * The actual class coverage object.
      */
-    private ClassCoverage classCoverage = new ClassCoverage();
+    private final ClassCoverage classCoverage;
 
     /**
      * The test class name.
@@ -43,19 +50,337 @@ public class FlowCovTestRunState {
     private String testClassName;
 
     /**
-     * The counter of processed elements.
+     * The counter of processed elements. Shared by the engine and job executor threads.
      */
-    private Integer executionCounter = 0;
+    private final AtomicLong executionCounter;
 
     /**
      * The name of the currently executing test method.
      */
-    private String currentTestMethodName;
+    private volatile String currentTestMethodName;
 
     /**
-     * A list of process definition keys excluded from the test run.
+     * The process definition keys and glob patterns excluded from the test run.
      */
-    private List<String> excludedProcessDefinitionKeys;
+    private KeyMatcher excludedProcessDefinitionKeys = KeyMatcher.compile(null);
+
+    /**
+     * Ring buffer decoupling the recording from the engine threads. Null if events are recorded synchronously.
+     */
+    private CoverageEventRingBuffer eventBuffer;
+
+    /**
+     * Whether executions are counted per element instead of traced per activity instance.
+     */
+    private boolean countExecutions;
+
+    /**
+     * Whether executions are recorded in a compressed trace instead of one object per activity instance.
+     */
+    private boolean compressTraces;
+
+    /**
+     * Whether the distinct paths of the process instances are recorded.
+     */
+    private boolean recordPaths;
+
+    /**
+     * Whether the class coverage changed since the class report was last written.
+     */
+    private final AtomicBoolean reportDirty = new AtomicBoolean();
+
+    /**
+     * The file format of the class report.
+     */
+    private ReportFormat reportFormat = ReportFormat.JSON;
+
+    /**
+     * Whether the class report is indented.
+     */
+    private boolean prettyPrintReport;
+
+    /**
+     * Whether the class report references the model XML in the model blob store instead of embedding it.
+     */
+    private boolean deduplicateModelXml;
+
+    /**
+     * Capacity of the queue of the asynchronous report writer, 0 to write the class report synchronously.
+     */
+    private int asyncReportQueueCapacity;
+
+    /**
+     * Shutdown hook writing the class report if the class end was never signalled. Null if not registered.
+     */
+    private Thread reportShutdownHook;
+
+    /**
+     * The state owning the class report. Bound test method states mark the report of their class state dirty.
+     */
+    private final FlowCovTestRunState classState;
+
+    public FlowCovTestRunState() {
+        this(new ClassCoverage(), new AtomicLong(), null);
+    }
+
+    private FlowCovTestRunState(final ClassCoverage classCoverage, final AtomicLong executionCounter,
+                                final FlowCovTestRunState classState) {
+        this.classCoverage = classCoverage;
+        this.executionCounter = executionCounter;
+        this.classState = classState != null ? classState : this;
+    }
+
+    /**
+     * Creates a state recording into the class coverage of this state on behalf of a single test method,
+     * regardless of the current test method. Test methods executed concurrently each record through their
+     * own bound state. Bound states record synchronously and leave writing the class report to this state.
+     *
+     * @param testMethodName The name of the test method.
+     * @return
+     */
+    public FlowCovTestRunState forTestMethod(final String testMethodName) {
+
+        final FlowCovTestRunState state = new FlowCovTestRunState(classCoverage, executionCounter, classState);
+        state.testClassName = testClassName;
+        state.currentTestMethodName = testMethodName;
+        state.excludedProcessDefinitionKeys = excludedProcessDefinitionKeys;
+        state.countExecutions = countExecutions;
+        state.compressTraces = compressTraces;
+        state.recordPaths = recordPaths;
+        return state;
+    }
+
+    /**
+     * Records the start of a flow node execution.
+     *
+     * @param dictionary            The element dictionary of the process definition.
+     * @param elementOrdinal        The ordinal of the flow node.
+     * @param activityInstanceId    The ID of the activity instance.
+     * @param rootProcessInstanceId The ID of the root process instance, partitioning the trace. May be null.
+     */
+    public void addCoveredFlowNode(final ProcessElementDictionary dictionary, final int elementOrdinal, final String activityInstanceId,
+                                   final String rootProcessInstanceId) {
+
+        if (countExecutions) {
+            this.countExecutionStart(dictionary, elementOrdinal);
+        } else if (eventBuffer != null) {
+            eventBuffer.publish(CoverageEventRingBuffer.FLOW_NODE_START, dictionary, elementOrdinal,
+                    CoverageEventRingBuffer.hash(activityInstanceId), activityInstanceId, rootProcessInstanceId, currentTestMethodName);
+        } else {
+            this.addCoveredElement(this.createCoveredFlowNode(dictionary, elementOrdinal, activityInstanceId, rootProcessInstanceId));
+        }
+    }
+
+    /**
+     * Records the end of a flow node execution.
+     *
+     * @param dictionary            The element dictionary of the process definition.
+     * @param elementOrdinal        The ordinal of the flow node.
+     * @param activityInstanceId    The ID of the activity instance.
+     * @param rootProcessInstanceId The ID of the root process instance, partitioning the trace. May be null.
+     */
+    public void endCoveredFlowNode(final ProcessElementDictionary dictionary, final int elementOrdinal, final String activityInstanceId,
+                                   final String rootProcessInstanceId) {
+
+        if (countExecutions) {
+            if (!this.isExcluded(dictionary.getProcessDefinitionKey())) {
+                classCoverage.countExecutionEnd(currentTestMethodName, dictionary.getProcessDefinitionKey(), elementOrdinal);
+            }
+        } else if (eventBuffer != null) {
+            eventBuffer.publish(CoverageEventRingBuffer.FLOW_NODE_END, dictionary, elementOrdinal,
+                    CoverageEventRingBuffer.hash(activityInstanceId), activityInstanceId, rootProcessInstanceId, currentTestMethodName);
+        } else {
+            this.endCoveredElement(this.createCoveredFlowNode(dictionary, elementOrdinal, activityInstanceId, rootProcessInstanceId));
+        }
+    }
+
+    /**
+     * Records a taken sequence flow.
+     *
+     * @param dictionary            The element dictionary of the process definition.
+     * @param elementOrdinal        The ordinal of the sequence flow.
+     * @param rootProcessInstanceId The ID of the root process instance, partitioning the trace. May be null.
+     */
+    public void addCoveredSequenceFlow(final ProcessElementDictionary dictionary, final int elementOrdinal,
+                                       final String rootProcessInstanceId) {
+
+        if (countExecutions) {
+            this.countExecutionStart(dictionary, elementOrdinal);
+        } else if (eventBuffer != null) {
+            eventBuffer.publish(CoverageEventRingBuffer.SEQUENCE_FLOW_TAKE, dictionary, elementOrdinal, 0L, null,
+                    rootProcessInstanceId, currentTestMethodName);
+        } else {
+            this.addCoveredElement(this.createCoveredSequenceFlow(dictionary, elementOrdinal, rootProcessInstanceId));
+        }
+    }
+
+    /**
+     * Appends a flow node start or sequence flow take to the path of its process instance. Paths are
+     * recorded directly in the coverage model, since their order is defined per process instance.
+     *
+     * @param dictionary        The element dictionary of the process definition.
+     * @param elementOrdinal    The ordinal of the flow node or sequence flow.
+     * @param processInstanceId The ID of the process instance.
+     */
+    public void addPathElement(final ProcessElementDictionary dictionary, final int elementOrdinal, final String processInstanceId) {
+        if (recordPaths && !this.isExcluded(dictionary.getProcessDefinitionKey())) {
+            classCoverage.addPathElement(currentTestMethodName, dictionary.getProcessDefinitionKey(), processInstanceId, elementOrdinal);
+        }
+    }
+
+    /**
+     * Records the end of a process instance, completing its path.
+     *
+     * @param dictionary        The element dictionary of the process definition.
+     * @param processInstanceId The ID of the process instance.
+     * @param completed         Whether the instance completed or was canceled.
+     */
+    public void endProcessInstance(final ProcessElementDictionary dictionary, final String processInstanceId, final boolean completed) {
+        if (recordPaths && !this.isExcluded(dictionary.getProcessDefinitionKey())) {
+            classCoverage.completePath(currentTestMethodName, dictionary.getProcessDefinitionKey(), processInstanceId, completed);
+        }
+    }
+
+    /**
+     * Counts an execution directly in the coverage model. Counting is cheap enough to bypass the ring buffer.
+     */
+    private void countExecutionStart(final ProcessElementDictionary dictionary, final int elementOrdinal) {
+        if (!this.isExcluded(dictionary.getProcessDefinitionKey())) {
+            classCoverage.countExecutionStart(currentTestMethodName, dictionary.getProcessDefinitionKey(), elementOrdinal);
+        }
+    }
+
+    private CoveredFlowNode createCoveredFlowNode(final ProcessElementDictionary dictionary, final int elementOrdinal,
+                                                  final String activityInstanceId, final String rootProcessInstanceId) {
+        final CoveredFlowNode coveredFlowNode = new CoveredFlowNode(
+                dictionary.getProcessDefinitionKey(),
+                dictionary.getElementId(elementOrdinal),
+                activityInstanceId,
+                dictionary.getElementType(elementOrdinal));
+        coveredFlowNode.setElementOrdinal(elementOrdinal);
+        coveredFlowNode.setRootProcessInstanceId(rootProcessInstanceId);
+        return coveredFlowNode;
+    }
+
+    private CoveredSequenceFlow createCoveredSequenceFlow(final ProcessElementDictionary dictionary, final int elementOrdinal,
+                                                          final String rootProcessInstanceId) {
+        final CoveredSequenceFlow coveredSequenceFlow = new CoveredSequenceFlow(
+                dictionary.getProcessDefinitionKey(),
+                dictionary.getElementId(elementOrdinal));
+        coveredSequenceFlow.setElementOrdinal(elementOrdinal);
+        coveredSequenceFlow.setRootProcessInstanceId(rootProcessInstanceId);
+        return coveredSequenceFlow;
+    }
+
+    /**
+     * Folds an event of the ring buffer into the class coverage. Called on the consumer thread.
+     * The activity instance is identified by its ID, as in synchronous recording, and the event
+     * sequence is used as execution counter. The event is recorded for the test method running when it
+     * was published, which may have finished in the meantime.
+     */
+    private void consumeEvent(final byte kind, final ProcessElementDictionary dictionary, final int elementOrdinal,
+                              final long instanceIdHash, final String activityInstanceId, final String rootProcessInstanceId,
+                              final String testMethodName,
+                              final long sequence) {
+
+        final CoveredElement coveredElement;
+        if (kind == CoverageEventRingBuffer.SEQUENCE_FLOW_TAKE) {
+            coveredElement = this.createCoveredSequenceFlow(dictionary, elementOrdinal, rootProcessInstanceId);
+        } else {
+            coveredElement = this.createCoveredFlowNode(dictionary, elementOrdinal, activityInstanceId, rootProcessInstanceId);
+        }
+
+        if (this.isExcluded(coveredElement)) {
+            return;
+        }
+
+        if (kind == CoverageEventRingBuffer.FLOW_NODE_END) {
+            ((CoveredFlowNode) coveredElement).setExecutionEndCoutner(sequence);
+            classCoverage.endCoveredElement(testMethodName, coveredElement);
+        } else {
+            coveredElement.setExecutionStartCounter(sequence);
+            classCoverage.addCoveredElement(testMethodName, coveredElement);
+        }
+    }
+
+    /**
+     * Records events through a ring buffer drained by a background thread instead of
+     * updating the coverage model on the engine thread. Has no effect if already enabled.
+     *
+     * @param capacity The number of preallocated event slots.
+     */
+    public void enableAsyncRecording(final int capacity) {
+        if (eventBuffer == null) {
+            eventBuffer = new CoverageEventRingBuffer(capacity, this::consumeEvent);
+        }
+    }
+
+    /**
+     * Waits until all recorded events have been folded into the class coverage.
+     */
+    public void flush() {
+        if (eventBuffer != null) {
+            eventBuffer.flush();
+        }
+    }
+
+    /**
+     * Marks the class report as outdated. The report is written once by {@link #flushReport()}
+     * at the end of the class or, if that never happens, when the JVM shuts down. A single shutdown hook
+     * is registered per class state.
+     */
+    public void markReportDirty() {
+
+        if (classState != this) {
+            classState.markReportDirty();
+            return;
+        }
+
+        synchronized (this) {
+            reportDirty.set(true);
+
+            if (reportShutdownHook == null) {
+                // Written synchronously, the asynchronous writer may already be draining
+                reportShutdownHook = new Thread(() -> this.writeReportIfDirty(false), "flowcov-report-shutdown");
+                Runtime.getRuntime().addShutdownHook(reportShutdownHook);
+            }
+        }
+    }
+
+    /**
+     * Writes the class report if the coverage changed since it was last written. If configured, the report
+     * is only captured here and written by the asynchronous report writer.
+     */
+    public void flushReport() {
+
+        if (classState != this) {
+            classState.flushReport();
+            return;
+        }
+
+        synchronized (this) {
+            this.writeReportIfDirty(asyncReportQueueCapacity > 0);
+
+            if (reportShutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(reportShutdownHook);
+                } catch (final IllegalStateException ex) {
+                    // JVM is already shutting down, the hook has nothing left to write
+                }
+                reportShutdownHook = null;
+            }
+        }
+    }
+
+    private void writeReportIfDirty(final boolean async) {
+        if (reportDirty.compareAndSet(true, false)) {
+            if (async) {
+                AsyncReportWriter.getInstance(asyncReportQueueCapacity).submit(CoverageReportUtil.createReportSnapshot(this));
+            } else {
+                CoverageReportUtil.createClassReport(this);
+            }
+        }
+    }
 
     /**
      * Adds the covered element to the current test run coverage.
@@ -64,8 +389,7 @@ public class FlowCovTestRunState {
      */
     public void addCoveredElement(/* @NotNull */ final CoveredElement coveredElement) {
 
-        executionCounter++;
-        coveredElement.setExecutionStartCounter(executionCounter);
+        coveredElement.setExecutionStartCounter(executionCounter.incrementAndGet());
 
         if (!this.isExcluded(coveredElement)) {
             if (log.isLoggable(Level.FINE)) {
@@ -83,11 +407,11 @@ public class FlowCovTestRunState {
      * @param coveredElement
      */
     public void endCoveredElement(final CoveredElement coveredElement) {
-        executionCounter++;
+        final long executionEndCounter = executionCounter.incrementAndGet();
 
         if (coveredElement instanceof CoveredFlowNode) {
             final CoveredFlowNode endedFlowNode = (CoveredFlowNode) coveredElement;
-            endedFlowNode.setExecutionEndCoutner(executionCounter);
+            endedFlowNode.setExecutionEndCoutner(executionEndCounter);
         }
 
         if (!this.isExcluded(coveredElement)) {
@@ -103,6 +427,16 @@ public class FlowCovTestRunState {
         classCoverage.addCoveredDmnRules(currentTestMethodName, coveredDmnRule);
     }
 
+    /**
+     * Adds a covered rule to the current test method coverage.
+     *
+     * @param decisionKey The key of the decision the rule belongs to.
+     * @param ruleId      The ID of the rule.
+     */
+    public void addCoveredRule(final String decisionKey, final String ruleId) {
+        classCoverage.addCoveredRule(currentTestMethodName, decisionKey, ruleId);
+    }
+
     /**
      * Adds a test method to the class coverage.
      *
@@ -119,7 +453,7 @@ public class FlowCovTestRunState {
         final MethodCoverage testCoverage = new MethodCoverage(deploymentId, testName);
 
         processDefinitions.stream()
-                .map(obj -> new ProcessCoverage(processEngine, obj))
+                .map(obj -> new ProcessCoverage(processEngine, obj, compressTraces && !countExecutions))
                 .forEach(testCoverage::addProcessCoverage);
 
         decisionDefinitions.stream()
@@ -185,15 +519,88 @@ public class FlowCovTestRunState {
         this.testClassName = className;
     }
 
+    public boolean isCountExecutions() {
+        return countExecutions;
+    }
+
+    public void setCountExecutions(final boolean countExecutions) {
+        this.countExecutions = countExecutions;
+    }
+
+    public boolean isCompressTraces() {
+        return compressTraces;
+    }
+
+    public void setCompressTraces(final boolean compressTraces) {
+        this.compressTraces = compressTraces;
+    }
+
+    public boolean isRecordPaths() {
+        return recordPaths;
+    }
+
+    public void setRecordPaths(final boolean recordPaths) {
+        this.recordPaths = recordPaths;
+    }
+
+    public ReportFormat getReportFormat() {
+        return reportFormat;
+    }
+
+    public void setReportFormat(final ReportFormat reportFormat) {
+        this.reportFormat = reportFormat;
+    }
+
+    public boolean isPrettyPrintReport() {
+        return prettyPrintReport;
+    }
+
+    public void setPrettyPrintReport(final boolean prettyPrintReport) {
+        this.prettyPrintReport = prettyPrintReport;
+    }
+
+    public int getAsyncReportQueueCapacity() {
+        return asyncReportQueueCapacity;
+    }
+
+    public void setAsyncReportQueueCapacity(final int asyncReportQueueCapacity) {
+        this.asyncReportQueueCapacity = asyncReportQueueCapacity;
+    }
+
+    public boolean isDeduplicateModelXml() {
+        return deduplicateModelXml;
+    }
+
+    public void setDeduplicateModelXml(final boolean deduplicateModelXml) {
+        this.deduplicateModelXml = deduplicateModelXml;
+    }
+
+    /**
+     * Sets the process definition keys excluded from the test run. Keys containing {@code *} or {@code ?}
+     * are glob patterns.
+     *
+     * @param excludedProcessDefinitionKeys
+     */
     public void setExcludedProcessDefinitionKeys(final List<String> excludedProcessDefinitionKeys) {
-        this.excludedProcessDefinitionKeys = excludedProcessDefinitionKeys;
+        this.excludedProcessDefinitionKeys = KeyMatcher.compile(excludedProcessDefinitionKeys);
+    }
+
+    public KeyMatcher getExcludedProcessDefinitionKeys() {
+        return excludedProcessDefinitionKeys;
     }
 
     private boolean isExcluded(final CoveredElement coveredElement) {
-        if (excludedProcessDefinitionKeys != null) {
-            return excludedProcessDefinitionKeys.contains(coveredElement.getProcessDefinitionKey());
-        }
-        return false;
+        return this.isExcluded(coveredElement.getProcessDefinitionKey());
+    }
+
+    /**
+     * Checks whether a process definition key is excluded from the test run.
+     *
+     * @param processDefinitionKey
+     * @return
+     */
+    public boolean isExcluded(final String processDefinitionKey) {
+        return excludedProcessDefinitionKeys.matches(processDefinitionKey);
     }
 
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.junit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the state of the coverage test a recorded event belongs to. Tests executed concurrently
+ * bind their state to the executing thread and register it under the ID of their deployment. A root
+ * process instance belongs to the test whose thread started it, so its later events, e.g. of the job
+ * executor, are recorded by that test. All other events are recorded by the default state, which is
+ * set by the {@link FlowCovProcessEngineRule}.
+ */
+public class FlowCovTestRunStateRegistry {
+
+    /**
+     * The states of the tests executed by the current thread.
+     */
+    private static final ThreadLocal<FlowCovTestRunState> threadStates = new ThreadLocal<>();
+
+    /**
+     * The state of events of unregistered deployments.
+     */
+    private volatile FlowCovTestRunState defaultState;
+
+    /**
+     * The states registered by the tests, accessed by the deployment ID.
+     */
+    private final Map<String, FlowCovTestRunState> deploymentStates = new ConcurrentHashMap<>();
+
+    /**
+     * The states of the root process instances started by registered tests, accessed by the root process instance ID.
+     */
+    private final Map<String, FlowCovTestRunState> processInstanceStates = new ConcurrentHashMap<>();
+
+    /**
+     * Binds the state of the test executed by the current thread. Threads started by the test do not
+     * inherit it, their events are resolved by process instance or deployment.
+     *
+     * @param state
+     */
+    public static void bindThreadState(final FlowCovTestRunState state) {
+        threadStates.set(state);
+    }
+
+    /**
+     * Unbinds the state of the test executed by the current thread.
+     */
+    public static void unbindThreadState() {
+        threadStates.remove();
+    }
+
+    /**
+     * Retrieves the state the events of a deployment are recorded by on the current thread.
+     *
+     * @param deploymentId The deployment ID, may be null.
+     * @return The thread bound, the registered or the default state, null if there is none.
+     */
+    public FlowCovTestRunState resolve(final String deploymentId) {
+        return this.resolve(deploymentId, null);
+    }
+
+    /**
+     * Retrieves the state the events of a process instance are recorded by. The state of a known root
+     * process instance comes first. Otherwise a thread bound to a test records the event and claims a new
+     * root process instance for that test, since concurrent tests deploying the same definitions start or
+     * evaluate the latest version by key, which may be the deployment of another test. Events of unbound
+     * threads, e.g. of the job executor, are recorded by the state of their deployment.
+     *
+     * @param deploymentId          The deployment ID, may be null.
+     * @param rootProcessInstanceId The root process instance ID, may be null.
+     * @return The state of the process instance, the thread bound, the registered or the default state,
+     * null if there is none.
+     */
+    public FlowCovTestRunState resolve(final String deploymentId, final String rootProcessInstanceId) {
+
+        if (rootProcessInstanceId != null && !processInstanceStates.isEmpty()) {
+            final FlowCovTestRunState state = processInstanceStates.get(rootProcessInstanceId);
+            if (state != null) {
+                return state;
+            }
+        }
+
+        final FlowCovTestRunState threadState = threadStates.get();
+        if (threadState != null) {
+            return rootProcessInstanceId != null
+                    ? processInstanceStates.computeIfAbsent(rootProcessInstanceId, id -> threadState)
+                    : threadState;
+        }
+
+        if (deploymentId != null && !deploymentStates.isEmpty()) {
+            final FlowCovTestRunState state = deploymentStates.get(deploymentId);
+            if (state != null) {
+                return state;
+            }
+        }
+
+        return defaultState;
+    }
+
+    /**
+     * Records the events of a deployment by the given state until it is unregistered.
+     *
+     * @param deploymentId
+     * @param state
+     */
+    public void register(final String deploymentId, final FlowCovTestRunState state) {
+        deploymentStates.put(deploymentId, state);
+    }
+
+    /**
+     * Records the events of a deployment by the default state again and forgets the process instances
+     * claimed by its state.
+     *
+     * @param deploymentId
+     */
+    public void unregister(final String deploymentId) {
+        final FlowCovTestRunState state = deploymentStates.remove(deploymentId);
+        if (state != null) {
+            processInstanceStates.values().removeIf(processInstanceState -> processInstanceState == state);
+        }
+    }
+
+    /**
+     * Checks whether any deployment state is registered, so events can skip resolving their deployment.
+     *
+     * @return
+     */
+    public boolean hasDeploymentStates() {
+        return !deploymentStates.isEmpty();
+    }
+
+    public FlowCovTestRunState getDefaultState() {
+        return defaultState;
+    }
+
+    public void setDefaultState(final FlowCovTestRunState defaultState) {
+        this.defaultState = defaultState;
+    }
+
+}
@@ -17,11 +17,19 @@
 package io.flowcov.camunda.junit;
 
 import io.flowcov.camunda.listeners.CompensationEventCoverageHandler;
+import io.flowcov.camunda.listeners.CoverageDeployer;
 import io.flowcov.camunda.listeners.CoverageHistoryEventHandler;
 import io.flowcov.camunda.listeners.ElementCoverageParseListener;
+import io.flowcov.camunda.listeners.HistoryPersistenceMode;
+import io.flowcov.camunda.listeners.InstrumentationLevel;
+import io.flowcov.camunda.util.CamundaCapabilities;
 import org.camunda.bpm.engine.impl.bpmn.parser.BpmnParseListener;
 import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.history.event.HistoryEvent;
+import org.camunda.bpm.engine.impl.persistence.deploy.Deployer;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -31,32 +39,94 @@ import java.util.List;
 public class ProcessCoverageConfigurator {
 
     public static void initializeProcessCoverageExtensions(final ProcessEngineConfigurationImpl configuration) {
-        initializeCoverageHistoryHandler(configuration);
-        initializeElementCoverageParseListener(configuration);
-        initializeCompensationEventHandler(configuration);
+        initializeProcessCoverageExtensions(configuration, InstrumentationLevel.FULL);
     }
 
-    private static void initializeElementCoverageParseListener(final ProcessEngineConfigurationImpl configuration) {
+    /**
+     * Configures the process coverage extensions, attaching only the execution listeners of the given level.
+     *
+     * @param configuration
+     * @param instrumentationLevel Which flow node and sequence flow events are recorded.
+     */
+    public static void initializeProcessCoverageExtensions(final ProcessEngineConfigurationImpl configuration,
+                                                           final InstrumentationLevel instrumentationLevel) {
+        initializeProcessCoverageExtensions(configuration, HistoryPersistenceMode.ALL, Collections.emptyList(), instrumentationLevel);
+    }
+
+    /**
+     * Configures the process coverage extensions, limiting the history events written to the database.
+     *
+     * @param configuration
+     * @param historyPersistenceMode    Which history events are written to the database.
+     * @param persistedHistoryEventTypes Types of the history events written in {@link HistoryPersistenceMode#SELECTED} mode.
+     */
+    public static void initializeProcessCoverageExtensions(final ProcessEngineConfigurationImpl configuration,
+                                                           final HistoryPersistenceMode historyPersistenceMode,
+                                                           final Collection<Class<? extends HistoryEvent>> persistedHistoryEventTypes) {
+        initializeProcessCoverageExtensions(configuration, historyPersistenceMode, persistedHistoryEventTypes, InstrumentationLevel.FULL);
+    }
+
+    /**
+     * Configures the process coverage extensions, limiting the history events written to the database
+     * and the execution listeners attached.
+     *
+     * @param configuration
+     * @param historyPersistenceMode     Which history events are written to the database.
+     * @param persistedHistoryEventTypes Types of the history events written in {@link HistoryPersistenceMode#SELECTED} mode.
+     * @param instrumentationLevel       Which flow node and sequence flow events are recorded.
+     */
+    public static void initializeProcessCoverageExtensions(final ProcessEngineConfigurationImpl configuration,
+                                                           final HistoryPersistenceMode historyPersistenceMode,
+                                                           final Collection<Class<? extends HistoryEvent>> persistedHistoryEventTypes,
+                                                           final InstrumentationLevel instrumentationLevel) {
+        // The listeners share the states, so a process instance is recorded by the same test by all of them
+        final FlowCovTestRunStateRegistry coverageTestRunStates = new FlowCovTestRunStateRegistry();
+
+        initializeCoverageHistoryHandler(configuration, historyPersistenceMode, persistedHistoryEventTypes, coverageTestRunStates);
+        initializeElementCoverageParseListener(configuration, instrumentationLevel, coverageTestRunStates);
+        initializeCompensationEventHandler(configuration, coverageTestRunStates);
+        initializeCoverageDeployer(configuration);
+    }
+
+    private static void initializeElementCoverageParseListener(final ProcessEngineConfigurationImpl configuration,
+                                                               final InstrumentationLevel instrumentationLevel,
+                                                               final FlowCovTestRunStateRegistry coverageTestRunStates) {
         List<BpmnParseListener> bpmnParseListeners = configuration.getCustomPostBPMNParseListeners();
         if (bpmnParseListeners == null) {
             bpmnParseListeners = new LinkedList<>();
             configuration.setCustomPostBPMNParseListeners(bpmnParseListeners);
         }
 
-        bpmnParseListeners.add(new ElementCoverageParseListener());
+        bpmnParseListeners.add(new ElementCoverageParseListener(instrumentationLevel, coverageTestRunStates));
     }
 
-    private static void initializeCoverageHistoryHandler(final ProcessEngineConfigurationImpl configuration) {
-        final CoverageHistoryEventHandler historyEventHandler = new CoverageHistoryEventHandler();
+    private static void initializeCoverageHistoryHandler(final ProcessEngineConfigurationImpl configuration,
+                                                         final HistoryPersistenceMode historyPersistenceMode,
+                                                         final Collection<Class<? extends HistoryEvent>> persistedHistoryEventTypes,
+                                                         final FlowCovTestRunStateRegistry coverageTestRunStates) {
+        final CoverageHistoryEventHandler historyEventHandler = new CoverageHistoryEventHandler(coverageTestRunStates);
+        historyEventHandler.setPersistenceMode(historyPersistenceMode);
+        historyEventHandler.setPersistedEventTypes(persistedHistoryEventTypes);
         configuration.setHistoryEventHandler(historyEventHandler);
     }
 
-    private static void initializeCompensationEventHandler(final ProcessEngineConfigurationImpl configuration) {
+    private static void initializeCompensationEventHandler(final ProcessEngineConfigurationImpl configuration,
+                                                           final FlowCovTestRunStateRegistry coverageTestRunStates) {
         if (configuration.getCustomEventHandlers() == null) {
             configuration.setCustomEventHandlers(new LinkedList<>());
         }
 
-        configuration.getCustomEventHandlers().add(new CompensationEventCoverageHandler());
+        configuration.getCustomEventHandlers().add(new CompensationEventCoverageHandler(CamundaCapabilities.resolve(), coverageTestRunStates));
+    }
+
+    private static void initializeCoverageDeployer(final ProcessEngineConfigurationImpl configuration) {
+        List<Deployer> deployers = configuration.getCustomPostDeployers();
+        if (deployers == null) {
+            deployers = new LinkedList<>();
+            configuration.setCustomPostDeployers(deployers);
+        }
+
+        deployers.add(new CoverageDeployer());
     }
 
 
@@ -16,7 +16,13 @@
 
 package io.flowcov.camunda.junit;
 
+import io.flowcov.camunda.listeners.HistoryPersistenceMode;
+import io.flowcov.camunda.listeners.InstrumentationLevel;
 import org.camunda.bpm.engine.impl.cfg.StandaloneInMemProcessEngineConfiguration;
+import org.camunda.bpm.engine.impl.history.event.HistoryEvent;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Standalone in memory process engine configuration additionally configuring
@@ -25,10 +31,50 @@ import org.camunda.bpm.engine.impl.cfg.StandaloneInMemProcessEngineConfiguration
  */
 public class ProcessCoverageInMemProcessEngineConfiguration extends StandaloneInMemProcessEngineConfiguration {
 
+    /**
+     * Which history events are written to the database.
+     */
+    private HistoryPersistenceMode historyPersistenceMode = HistoryPersistenceMode.ALL;
+
+    /**
+     * Types of the history events written in {@link HistoryPersistenceMode#SELECTED} mode.
+     */
+    private List<Class<? extends HistoryEvent>> persistedHistoryEventTypes = new ArrayList<>();
+
+    /**
+     * Which flow node and sequence flow events are recorded.
+     */
+    private InstrumentationLevel instrumentationLevel = InstrumentationLevel.FULL;
+
     @Override
     protected void init() {
-        ProcessCoverageConfigurator.initializeProcessCoverageExtensions(this);
+        ProcessCoverageConfigurator.initializeProcessCoverageExtensions(this, historyPersistenceMode, persistedHistoryEventTypes,
+                instrumentationLevel);
         super.init();
     }
 
+    public HistoryPersistenceMode getHistoryPersistenceMode() {
+        return historyPersistenceMode;
+    }
+
+    public void setHistoryPersistenceMode(final HistoryPersistenceMode historyPersistenceMode) {
+        this.historyPersistenceMode = historyPersistenceMode;
+    }
+
+    public List<Class<? extends HistoryEvent>> getPersistedHistoryEventTypes() {
+        return persistedHistoryEventTypes;
+    }
+
+    public void setPersistedHistoryEventTypes(final List<Class<? extends HistoryEvent>> persistedHistoryEventTypes) {
+        this.persistedHistoryEventTypes = persistedHistoryEventTypes;
+    }
+
+    public InstrumentationLevel getInstrumentationLevel() {
+        return instrumentationLevel;
+    }
+
+    public void setInstrumentationLevel(final InstrumentationLevel instrumentationLevel) {
+        this.instrumentationLevel = instrumentationLevel;
+    }
+
 }
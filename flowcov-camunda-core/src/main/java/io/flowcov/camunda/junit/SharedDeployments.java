@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.junit;
+
+import io.flowcov.camunda.listeners.CoverageDeployer;
+import io.flowcov.camunda.listeners.ElementCoverageParseListener;
+import io.flowcov.camunda.util.KeyMatcher;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.persistence.deploy.cache.DeploymentCache;
+import org.camunda.bpm.engine.impl.test.TestHelper;
+import org.camunda.bpm.engine.test.Deployment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * JVM-wide registry of the {@code @Deployment} resources deployed for reuse. Every distinct resource
+ * set is deployed once per process engine and kept across test methods and classes, so large models
+ * are only parsed and deployed once.
+ */
+public class SharedDeployments {
+
+    private static final Logger logger = Logger.getLogger(SharedDeployments.class.getCanonicalName());
+
+    /**
+     * The shared deployments of each process engine, accessed by their resource and exclusion set.
+     */
+    private static final Map<ProcessEngine, Map<String, SharedDeployment>> deployments =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private SharedDeployments() {
+    }
+
+    /**
+     * Retrieves the shared deployment of the resources of a test method, deploying them if they are
+     * not deployed yet or the deployment was deleted in the meantime. Deleted deployments are detected
+     * by their definitions missing from the deployment cache of the engine, without querying the database.
+     *
+     * @param processEngine
+     * @param testClass
+     * @param methodName
+     * @param deploymentAnnotation          The deployment annotation of the test method or class.
+     * @param excludedProcessDefinitionKeys The process definition keys excluded by the test, may be null.
+     * @return The deployment or null if nothing has to be deployed.
+     */
+    public static SharedDeployment getDeployment(final ProcessEngine processEngine, final Class<?> testClass,
+                                                 final String methodName, final Deployment deploymentAnnotation,
+                                                 final List<String> excludedProcessDefinitionKeys) {
+
+        if (deploymentAnnotation == null) {
+            return null;
+        }
+
+        final Map<String, SharedDeployment> engineDeployments = deployments.computeIfAbsent(processEngine,
+                engine -> new ConcurrentHashMap<>());
+
+        // Excluded process definitions are not instrumented, so the exclusions are part of the key
+        final String key = getResourceSet(testClass, methodName, deploymentAnnotation)
+                + getExclusionSet(excludedProcessDefinitionKeys);
+
+        return engineDeployments.compute(key,
+                (resourceSet, deployment) -> deployment != null && isCached(processEngine, deployment)
+                        ? deployment
+                        : deploy(processEngine, testClass, methodName, deploymentAnnotation, resourceSet,
+                        excludedProcessDefinitionKeys));
+    }
+
+    /**
+     * Forgets the shared deployments of all process engines without deleting them.
+     */
+    public static void clear() {
+        deployments.clear();
+    }
+
+    private static SharedDeployment deploy(final ProcessEngine processEngine, final Class<?> testClass, final String methodName,
+                                           final Deployment deploymentAnnotation, final String resourceSet,
+                                           final List<String> excludedProcessDefinitionKeys) {
+
+        logger.fine("Deploying shared resources " + resourceSet);
+
+        final String deploymentId = ElementCoverageParseListener.deployWithExclusions(processEngine,
+                KeyMatcher.compile(excludedProcessDefinitionKeys),
+                () -> TestHelper.annotationDeploymentSetUp(processEngine, testClass, methodName, deploymentAnnotation));
+        return new SharedDeployment(deploymentId, CoverageDeployer.getDeployedDefinitions(processEngine, deploymentId));
+    }
+
+    /**
+     * Checks if the definitions of the deployment are still cached. Deleting a deployment removes its
+     * definitions from the cache; a definition evicted from the cache only causes a redeployment.
+     */
+    private static boolean isCached(final ProcessEngine processEngine, final SharedDeployment deployment) {
+
+        final DeploymentCache deploymentCache = ((ProcessEngineConfigurationImpl) processEngine.getProcessEngineConfiguration())
+                .getDeploymentCache();
+        final CoverageDeployer.DeployedDefinitions deployedDefinitions = deployment.getDeployedDefinitions();
+
+        if (!deployedDefinitions.getProcessDefinitions().isEmpty()) {
+            return deploymentCache.getProcessDefinitionCache()
+                    .get(deployedDefinitions.getProcessDefinitions().get(0).getId()) != null;
+        }
+        if (!deployedDefinitions.getDecisionDefinitions().isEmpty()) {
+            return deploymentCache.getDecisionDefinitionCache()
+                    .get(deployedDefinitions.getDecisionDefinitions().get(0).getId()) != null;
+        }
+
+        // Nothing is recorded for a deployment without definitions
+        return true;
+    }
+
+    private static String getResourceSet(final Class<?> testClass, final String methodName, final Deployment deploymentAnnotation) {
+
+        // Without resources, the process definition named after the test method is deployed
+        if (deploymentAnnotation.resources().length == 0) {
+            return TestHelper.getBpmnProcessDefinitionResource(testClass, methodName);
+        }
+
+        return Arrays.stream(deploymentAnnotation.resources())
+                .sorted()
+                .distinct()
+                .collect(Collectors.joining(","));
+    }
+
+    private static String getExclusionSet(final List<String> excludedProcessDefinitionKeys) {
+
+        if (excludedProcessDefinitionKeys == null || excludedProcessDefinitionKeys.isEmpty()) {
+            return "";
+        }
+
+        return excludedProcessDefinitionKeys.stream()
+                .sorted()
+                .distinct()
+                .collect(Collectors.joining(",", " excluding ", ""));
+    }
+
+    /**
+     * A deployment shared by test methods with its process and decision definitions.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class SharedDeployment {
+
+        private final String deploymentId;
+
+        private final CoverageDeployer.DeployedDefinitions deployedDefinitions;
+
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.junit5;
+
+import io.flowcov.camunda.junit.FlowCovProcessEngineRule;
+import io.flowcov.camunda.junit.FlowCovTestRunState;
+import io.flowcov.camunda.junit.FlowCovTestRunStateFactory;
+import io.flowcov.camunda.junit.FlowCovTestRunStateRegistry;
+import io.flowcov.camunda.listeners.CompensationEventCoverageHandler;
+import io.flowcov.camunda.listeners.CoverageDeployer;
+import io.flowcov.camunda.listeners.CoverageHistoryEventHandler;
+import io.flowcov.camunda.listeners.ElementCoverageParseListener;
+import io.flowcov.camunda.listeners.InstrumentationLevel;
+import io.flowcov.camunda.model.CoveredFlowNode;
+import io.flowcov.camunda.model.MethodCoverage;
+import io.flowcov.camunda.util.ReportFormat;
+import lombok.val;
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.bpmn.parser.BpmnParseListener;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.event.EventHandler;
+import org.camunda.bpm.engine.impl.test.TestHelper;
+import org.camunda.bpm.engine.repository.DecisionDefinition;
+import org.camunda.bpm.engine.repository.ProcessDefinition;
+import org.camunda.bpm.engine.test.Deployment;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * JUnit Jupiter extension handling the flowcov test coverage. Unlike the {@link FlowCovProcessEngineRule},
+ * the coverage state of a test class is bound to its extension context and every test method records
+ * through its own state, resolved by the executing thread or else by the ID of the test method deployment.
+ * Test classes and methods can therefore be executed concurrently with
+ * {@code junit.jupiter.execution.parallel.enabled}.
+ */
+public class FlowCovExtension implements BeforeAllCallback, AfterAllCallback, BeforeEachCallback, AfterEachCallback,
+        ParameterResolver {
+
+    private static Logger logger = Logger.getLogger(FlowCovExtension.class.getCanonicalName());
+
+    /**
+     * Store key of the class coverage state.
+     */
+    private static final String RUN_STATE = "coverageTestRunState";
+
+    /**
+     * Store key of the test method deployment ID.
+     */
+    private static final String DEPLOYMENT_ID = "deploymentId";
+
+    /**
+     * The process engine, built from {@link #configurationResource} on first use if not given.
+     */
+    private volatile ProcessEngine processEngine;
+
+    /**
+     * The Camunda configuration resource the process engine is built from if not given.
+     */
+    private String configurationResource = "camunda.cfg.xml";
+
+    /**
+     * Creates the class coverage states.
+     */
+    private FlowCovTestRunStateFactory coverageTestRunStateFactory = new FlowCovTestRunStateFactory();
+
+    /**
+     * A list of process definition keys excluded from the test run.
+     */
+    private List<String> excludedProcessDefinitionKeys;
+
+    /**
+     * Whether executions are counted per element instead of traced per activity instance.
+     */
+    private boolean countExecutions;
+
+    /**
+     * Whether executions are recorded in a compressed trace.
+     */
+    private boolean compressTraces;
+
+    /**
+     * Whether the distinct paths of the process instances are recorded.
+     */
+    private boolean recordPaths;
+
+    /**
+     * The file format of the class report.
+     */
+    private ReportFormat reportFormat = ReportFormat.JSON;
+
+    /**
+     * Whether the class report is indented.
+     */
+    private boolean prettyPrintReport;
+
+    /**
+     * Whether the class report references the model XML in the model blob store instead of embedding it.
+     */
+    private boolean deduplicateModelXml;
+
+    /**
+     * Capacity of the queue of the asynchronous report writer, 0 to write the class report synchronously.
+     */
+    private int asyncReportQueueCapacity;
+
+    /**
+     * Creates the extension for {@code @ExtendWith}, building the process engine from {@code camunda.cfg.xml}.
+     */
+    public FlowCovExtension() {
+    }
+
+    FlowCovExtension(final ProcessEngine processEngine) {
+        this.processEngine = processEngine;
+    }
+
+    @Override
+    public void beforeAll(final ExtensionContext context) {
+        this.getStore(context).getOrComputeIfAbsent(RUN_STATE, key -> this.createRunState(context), FlowCovTestRunState.class);
+    }
+
+    @Override
+    public void beforeEach(final ExtensionContext context) {
+
+        final Class<?> testClass = context.getRequiredTestClass();
+        final String methodName = context.getRequiredTestMethod().getName();
+
+        final Deployment deployment = this.findDeploymentAnnotation(context);
+        if (deployment == null) {
+            return;
+        }
+
+        final FlowCovTestRunState coverageTestRunState = this.getRunState(context);
+        final String deploymentId = ElementCoverageParseListener.deployWithExclusions(this.getProcessEngine(),
+                coverageTestRunState.getExcludedProcessDefinitionKeys(),
+                () -> TestHelper.annotationDeploymentSetUp(this.getProcessEngine(), testClass, methodName, deployment));
+        this.getStore(context).put(DEPLOYMENT_ID, deploymentId);
+
+        this.initializeMethodCoverage(coverageTestRunState, deploymentId, methodName);
+
+        final FlowCovTestRunState methodRunState = coverageTestRunState.forTestMethod(methodName);
+        this.registerRunState(deploymentId, methodRunState);
+        FlowCovTestRunStateRegistry.bindThreadState(methodRunState);
+    }
+
+    @Override
+    public void afterEach(final ExtensionContext context) {
+
+        final String deploymentId = this.getStore(context).remove(DEPLOYMENT_ID, String.class);
+        if (deploymentId == null) {
+            return;
+        }
+
+        final FlowCovTestRunState coverageTestRunState = this.getRunState(context);
+        final String methodName = context.getRequiredTestMethod().getName();
+
+        // Deleting the deployment ends the remaining process instances, which is still recorded for the method
+        try {
+            this.logUnfinishedFlowNodes(coverageTestRunState, context.getDisplayName(), methodName);
+            TestHelper.annotationDeploymentTearDown(this.getProcessEngine(), deploymentId, context.getRequiredTestClass(), methodName);
+        } finally {
+            FlowCovTestRunStateRegistry.unbindThreadState();
+            this.unregisterRunState(deploymentId);
+        }
+
+        // Make sure the class coverage deals with the same deployments for every test method
+        coverageTestRunState.getClassCoverage().assertAllDeploymentsEqual();
+        coverageTestRunState.markReportDirty();
+    }
+
+    @Override
+    public void afterAll(final ExtensionContext context) {
+
+        final FlowCovTestRunState coverageTestRunState = this.getStore(context).remove(RUN_STATE, FlowCovTestRunState.class);
+        if (coverageTestRunState != null) {
+            coverageTestRunState.flushReport();
+        }
+    }
+
+    @Override
+    public boolean supportsParameter(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+        return ProcessEngine.class.equals(parameterContext.getParameter().getType());
+    }
+
+    @Override
+    public Object resolveParameter(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+        return this.getProcessEngine();
+    }
+
+    /**
+     * Retrieves the process engine, building it from the configuration resource on first use.
+     *
+     * @return
+     */
+    public ProcessEngine getProcessEngine() {
+        if (processEngine == null) {
+            synchronized (this) {
+                if (processEngine == null) {
+                    processEngine = TestHelper.getProcessEngine(configurationResource);
+                }
+            }
+        }
+        return processEngine;
+    }
+
+    /**
+     * Retrieves the coverage state of the test class currently executed.
+     *
+     * @param context The extension context of the test class or one of its test methods.
+     * @return
+     */
+    public FlowCovTestRunState getRunState(final ExtensionContext context) {
+        return this.getStore(context).getOrComputeIfAbsent(RUN_STATE, key -> this.createRunState(context), FlowCovTestRunState.class);
+    }
+
+    /**
+     * Resolves the deployment of the test method from the method or the test class hierarchy. The annotation is
+     * passed to the {@link TestHelper}, since it looks up test methods without parameters only.
+     */
+    private Deployment findDeploymentAnnotation(final ExtensionContext context) {
+
+        final Deployment deployment = context.getRequiredTestMethod().getAnnotation(Deployment.class);
+        if (deployment != null) {
+            return deployment;
+        }
+
+        for (Class<?> testClass = context.getRequiredTestClass(); testClass != Object.class; testClass = testClass.getSuperclass()) {
+            if (testClass.isAnnotationPresent(Deployment.class)) {
+                return testClass.getAnnotation(Deployment.class);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The store is scoped by the test class, so nested test classes record their own class coverage.
+     */
+    private ExtensionContext.Store getStore(final ExtensionContext context) {
+        return context.getStore(ExtensionContext.Namespace.create(FlowCovExtension.class, context.getRequiredTestClass()));
+    }
+
+    private FlowCovTestRunState createRunState(final ExtensionContext context) {
+
+        final FlowCovTestRunState coverageTestRunState = coverageTestRunStateFactory.create(
+                context.getRequiredTestClass().getName(), excludedProcessDefinitionKeys);
+        coverageTestRunState.setCountExecutions(countExecutions);
+        coverageTestRunState.setCompressTraces(compressTraces);
+        coverageTestRunState.setRecordPaths(recordPaths);
+        coverageTestRunState.setReportFormat(reportFormat);
+        coverageTestRunState.setPrettyPrintReport(prettyPrintReport);
+        coverageTestRunState.setDeduplicateModelXml(deduplicateModelXml);
+        coverageTestRunState.setAsyncReportQueueCapacity(asyncReportQueueCapacity);
+        return coverageTestRunState;
+    }
+
+    /**
+     * Initialize the coverage of a test method.
+     *
+     * @param coverageTestRunState
+     * @param deploymentId
+     * @param methodName
+     */
+    private void initializeMethodCoverage(final FlowCovTestRunState coverageTestRunState, final String deploymentId,
+                                          final String methodName) {
+
+        final CoverageDeployer.DeployedDefinitions deployedDefinitions = CoverageDeployer.getDeployedDefinitions(
+                this.getProcessEngine(), deploymentId);
+
+        final List<ProcessDefinition> relevantProcessDefinitions = deployedDefinitions.getProcessDefinitions().stream()
+                .filter(obj -> !coverageTestRunState.isExcluded(obj.getKey()))
+                .collect(Collectors.toList());
+
+        final List<DecisionDefinition> decisionDefinitions = deployedDefinitions.getDecisionDefinitions();
+
+        coverageTestRunState.initializeTestMethodCoverage(
+                this.getProcessEngine(),
+                deploymentId,
+                relevantProcessDefinitions,
+                decisionDefinitions,
+                methodName);
+    }
+
+    private void registerRunState(final String deploymentId, final FlowCovTestRunState coverageTestRunState) {
+        for (final FlowCovTestRunStateRegistry registry : this.getRunStateRegistries()) {
+            registry.register(deploymentId, coverageTestRunState);
+        }
+    }
+
+    private void unregisterRunState(final String deploymentId) {
+        for (final FlowCovTestRunStateRegistry registry : this.getRunStateRegistries()) {
+            registry.unregister(deploymentId);
+        }
+    }
+
+    /**
+     * Retrieves the state registries of the coverage listeners of the process engine.
+     *
+     * @return
+     */
+    private List<FlowCovTestRunStateRegistry> getRunStateRegistries() {
+
+        val processEngineConfiguration = (ProcessEngineConfigurationImpl) this.getProcessEngine().getProcessEngineConfiguration();
+        final List<FlowCovTestRunStateRegistry> registries = new ArrayList<>();
+
+        if (processEngineConfiguration.getHistoryEventHandler() instanceof CoverageHistoryEventHandler) {
+            addRunStateRegistry(registries, ((CoverageHistoryEventHandler) processEngineConfiguration.getHistoryEventHandler())
+                    .getCoverageTestRunStates());
+        }
+
+        for (final BpmnParseListener parseListener : processEngineConfiguration.getCustomPostBPMNParseListeners()) {
+            if (parseListener instanceof ElementCoverageParseListener) {
+                addRunStateRegistry(registries, ((ElementCoverageParseListener) parseListener).getCoverageTestRunStates());
+            }
+        }
+
+        final EventHandler compensationEventHandler = processEngineConfiguration.getEventHandler("compensate");
+        if (compensationEventHandler instanceof CompensationEventCoverageHandler) {
+            addRunStateRegistry(registries, ((CompensationEventCoverageHandler) compensationEventHandler).getCoverageTestRunStates());
+        }
+
+        return registries;
+    }
+
+    private static void addRunStateRegistry(final List<FlowCovTestRunStateRegistry> registries,
+                                            final FlowCovTestRunStateRegistry registry) {
+
+        // The listeners configured by the ProcessCoverageConfigurator share their registry
+        if (!registries.contains(registry)) {
+            registries.add(registry);
+        }
+    }
+
+    /**
+     * Reports the flow nodes the test method started but never ended, e.g. waiting user tasks.
+     */
+    private void logUnfinishedFlowNodes(final FlowCovTestRunState coverageTestRunState, final String displayName,
+                                        final String methodName) {
+
+        if (!this.getInstrumentationLevel().isFlowNodeEnds()) {
+            return;
+        }
+
+        final MethodCoverage methodCoverage = coverageTestRunState.getTestMethodCoverage(methodName);
+        if (methodCoverage == null) {
+            return;
+        }
+
+        final List<CoveredFlowNode> unfinishedFlowNodes = methodCoverage.getUnfinishedFlowNodes();
+        if (!unfinishedFlowNodes.isEmpty()) {
+            logger.info(displayName + " left " + unfinishedFlowNodes.size() + " flow node(s) unfinished: "
+                    + unfinishedFlowNodes.stream()
+                    .map(node -> node.getProcessDefinitionKey() + ":" + node.getElementId())
+                    .collect(Collectors.joining(", ")));
+        }
+    }
+
+    private InstrumentationLevel getInstrumentationLevel() {
+
+        val processEngineConfiguration = (ProcessEngineConfigurationImpl) this.getProcessEngine().getProcessEngineConfiguration();
+        for (final BpmnParseListener parseListener : processEngineConfiguration.getCustomPostBPMNParseListeners()) {
+            if (parseListener instanceof ElementCoverageParseListener) {
+                return ((ElementCoverageParseListener) parseListener).getInstrumentationLevel();
+            }
+        }
+        return InstrumentationLevel.FULL;
+    }
+
+    public void setConfigurationResource(final String configurationResource) {
+        this.configurationResource = configurationResource;
+    }
+
+    public void setCoverageTestRunStateFactory(final FlowCovTestRunStateFactory coverageTestRunStateFactory) {
+        this.coverageTestRunStateFactory = coverageTestRunStateFactory;
+    }
+
+    public void setExcludedProcessDefinitionKeys(final List<String> excludedProcessDefinitionKeys) {
+        this.excludedProcessDefinitionKeys = excludedProcessDefinitionKeys;
+    }
+
+    public void setCountExecutions(final boolean countExecutions) {
+        this.countExecutions = countExecutions;
+    }
+
+    public void setCompressTraces(final boolean compressTraces) {
+        this.compressTraces = compressTraces;
+    }
+
+    public void setRecordPaths(final boolean recordPaths) {
+        this.recordPaths = recordPaths;
+    }
+
+    public void setReportFormat(final ReportFormat reportFormat) {
+        this.reportFormat = reportFormat;
+    }
+
+    public void setPrettyPrintReport(final boolean prettyPrintReport) {
+        this.prettyPrintReport = prettyPrintReport;
+    }
+
+    public void setDeduplicateModelXml(final boolean deduplicateModelXml) {
+        this.deduplicateModelXml = deduplicateModelXml;
+    }
+
+    public void setAsyncReportQueueCapacity(final int asyncReportQueueCapacity) {
+        this.asyncReportQueueCapacity = asyncReportQueueCapacity;
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.junit5;
+
+import io.flowcov.camunda.junit.FlowCovTestRunStateFactory;
+import io.flowcov.camunda.util.AsyncReportWriter;
+import io.flowcov.camunda.util.ReportFormat;
+import org.camunda.bpm.engine.ProcessEngine;
+
+import java.util.Arrays;
+
+/**
+ * Fluent Builder for FlowCovExtension. Asynchronous recording is not offered, since its events are
+ * attributed to the current test method, which is ambiguous when test methods run concurrently.
+ */
+public class FlowCovExtensionBuilder {
+
+    private final FlowCovExtension extension;
+
+    private FlowCovExtensionBuilder() {
+        this.extension = new FlowCovExtension();
+    }
+
+    private FlowCovExtensionBuilder(final ProcessEngine processEngine) {
+        this.extension = new FlowCovExtension(processEngine);
+    }
+
+    /**
+     * Creates a FlowCovExtensionBuilder building the process engine from {@code camunda.cfg.xml}.
+     *
+     * @return
+     */
+    public static FlowCovExtensionBuilder create() {
+        return new FlowCovExtensionBuilder();
+    }
+
+    /**
+     * Creates a FlowCovExtensionBuilder for the given process engine.
+     *
+     * @param processEngine
+     * @return
+     */
+    public static FlowCovExtensionBuilder create(final ProcessEngine processEngine) {
+        return new FlowCovExtensionBuilder(processEngine);
+    }
+
+    /**
+     * Configures the Camunda configuration resource the process engine is built from if none is given.
+     *
+     * @param configurationResource
+     * @return
+     */
+    public FlowCovExtensionBuilder configurationResource(final String configurationResource) {
+        extension.setConfigurationResource(configurationResource);
+        return this;
+    }
+
+    /**
+     * Configures CoverageTestRunStateFactory used to create CoverageTestRunState. Useful for sharing state between several test-classes
+     *
+     * @param coverageTestRunStateFactory
+     * @return
+     */
+    public FlowCovExtensionBuilder setCoverageTestRunStateFactory(final FlowCovTestRunStateFactory coverageTestRunStateFactory) {
+        extension.setCoverageTestRunStateFactory(coverageTestRunStateFactory);
+        return this;
+    }
+
+    /**
+     * Excludes process definitions from the coverage. Keys containing {@code *} or {@code ?} are glob
+     * patterns. Excluded process definitions are not instrumented when they are deployed.
+     *
+     * @param processDefinitionKeys
+     * @return
+     */
+    public FlowCovExtensionBuilder excludeProcessDefinitionKeys(final String... processDefinitionKeys) {
+        extension.setExcludedProcessDefinitionKeys(Arrays.asList(processDefinitionKeys));
+        return this;
+    }
+
+    /**
+     * Counts the starts and ends of every flow node and the takes of every sequence flow instead of
+     * tracing each execution.
+     *
+     * @return
+     */
+    public FlowCovExtensionBuilder countExecutions() {
+        extension.setCountExecutions(true);
+        return this;
+    }
+
+    /**
+     * Records the executions in a trace that collapses repeated event sequences into runs with a
+     * repeat count. Has no effect if executions are counted.
+     *
+     * @return
+     */
+    public FlowCovExtensionBuilder compressTraces() {
+        extension.setCompressTraces(true);
+        return this;
+    }
+
+    /**
+     * Records the distinct paths of the process instances with their occurrence counts.
+     *
+     * @return
+     */
+    public FlowCovExtensionBuilder recordPaths() {
+        extension.setRecordPaths(true);
+        return this;
+    }
+
+    /**
+     * Configures the file format of the class reports.
+     *
+     * @param reportFormat
+     * @return
+     */
+    public FlowCovExtensionBuilder reportFormat(final ReportFormat reportFormat) {
+        extension.setReportFormat(reportFormat);
+        return this;
+    }
+
+    /**
+     * Indents the JSON report for human readers. Reports are written compactly by default.
+     *
+     * @return
+     */
+    public FlowCovExtensionBuilder prettyPrintReport() {
+        extension.setPrettyPrintReport(true);
+        return this;
+    }
+
+    /**
+     * Writes each distinct BPMN/DMN XML once to the model blob store and references it by its content hash.
+     *
+     * @return
+     */
+    public FlowCovExtensionBuilder deduplicateModelXml() {
+        extension.setDeduplicateModelXml(true);
+        return this;
+    }
+
+    /**
+     * Writes the class reports on a background thread, so the test run does not wait for report I/O.
+     *
+     * @return
+     */
+    public FlowCovExtensionBuilder writeReportsAsynchronously() {
+        return this.writeReportsAsynchronously(AsyncReportWriter.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Writes the class reports on a background thread, so the test run does not wait for report I/O.
+     *
+     * @param queueCapacity The number of reports that may be pending before test classes wait for the writer.
+     * @return
+     */
+    public FlowCovExtensionBuilder writeReportsAsynchronously(final int queueCapacity) {
+        extension.setAsyncReportQueueCapacity(queueCapacity);
+        return this;
+    }
+
+    /**
+     * Builds the coverage extension.
+     *
+     * @return
+     */
+    public FlowCovExtension build() {
+        return extension;
+    }
+}
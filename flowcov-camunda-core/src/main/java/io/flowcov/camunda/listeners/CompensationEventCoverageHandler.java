@@ -17,8 +17,10 @@
 package io.flowcov.camunda.listeners;
 
 import io.flowcov.camunda.junit.FlowCovTestRunState;
+import io.flowcov.camunda.junit.FlowCovTestRunStateRegistry;
 import io.flowcov.camunda.model.CoveredFlowNode;
-import io.flowcov.camunda.util.Api;
+import io.flowcov.camunda.model.ProcessElementDictionary;
+import io.flowcov.camunda.util.CamundaCapabilities;
 import org.camunda.bpm.engine.impl.bpmn.helper.BpmnProperties;
 import org.camunda.bpm.engine.impl.event.CompensationEventHandler;
 import org.camunda.bpm.engine.impl.interceptor.CommandContext;
@@ -26,15 +28,34 @@ import org.camunda.bpm.engine.impl.persistence.entity.EventSubscriptionEntity;
 import org.camunda.bpm.engine.impl.persistence.entity.ProcessDefinitionEntity;
 import org.camunda.bpm.engine.impl.pvm.process.ActivityImpl;
 
-import java.lang.invoke.MethodHandle;
-
 /**
  * Handler for Compensation Boundary Events
  */
 public class CompensationEventCoverageHandler extends CompensationEventHandler {
 
-    private FlowCovTestRunState coverageTestRunState;
-    private MethodHandle handleEvent;
+    /**
+     * The states of the currently running coverage tests, usually shared by the coverage listeners of an engine.
+     */
+    private final FlowCovTestRunStateRegistry coverageTestRunStates;
+
+    /**
+     * Whether the Camunda version supports compensation event coverage, resolved once.
+     */
+    private final boolean compensationEventCoverageSupported;
+
+    public CompensationEventCoverageHandler() {
+        this(CamundaCapabilities.resolve());
+    }
+
+    public CompensationEventCoverageHandler(final CamundaCapabilities capabilities) {
+        this(capabilities, new FlowCovTestRunStateRegistry());
+    }
+
+    public CompensationEventCoverageHandler(final CamundaCapabilities capabilities,
+                                            final FlowCovTestRunStateRegistry coverageTestRunStates) {
+        this.compensationEventCoverageSupported = capabilities.isCompensationEventCoverage();
+        this.coverageTestRunStates = coverageTestRunStates;
+    }
 
     @Override
     public void handleEvent(final EventSubscriptionEntity eventSubscription, final Object payload, final Object localPayload,
@@ -44,13 +65,26 @@ public class CompensationEventCoverageHandler extends CompensationEventHandler {
     }
 
     private void addCompensationEventCoverage(final EventSubscriptionEntity eventSubscription) {
-        if (Api.Camunda.supportsCompensationEventCoverage()) {
+        if (compensationEventCoverageSupported && CoverageSwitch.isEnabled()) {
 
             final ActivityImpl activity = eventSubscription.getActivity();
 
             // Get process definition key
             final ProcessDefinitionEntity processDefinition = (ProcessDefinitionEntity) activity.getProcessDefinition();
             final String processDefinitionKey = processDefinition.getKey();
+            if (!CoverageSwitch.isEnabled(processDefinitionKey)) {
+                return;
+            }
+
+            final String rootProcessInstanceId = eventSubscription.getExecution() != null
+                    ? ElementCoverageExecutionListener.getRootProcessInstanceId(eventSubscription.getExecution())
+                    : eventSubscription.getProcessInstanceId();
+
+            final FlowCovTestRunState coverageTestRunState = coverageTestRunStates.resolve(processDefinition.getDeploymentId(),
+                    rootProcessInstanceId);
+            if (coverageTestRunState == null) {
+                return;
+            }
 
             // Get compensation boundary event ID
             final ActivityImpl sourceEvent = (ActivityImpl) activity.getProperty(
@@ -59,17 +93,31 @@ public class CompensationEventCoverageHandler extends CompensationEventHandler {
             if (sourceEvent != null) {
 
                 final String sourceEventId = sourceEvent.getActivityId();
+                final String sourceEventInstanceId = sourceEventId + ":" + eventSubscription.getId();
 
                 // Register covered element
-                final CoveredFlowNode compensationBoundaryEvent = new CoveredFlowNode(processDefinitionKey, sourceEventId, sourceEventId + ":" + eventSubscription.getId(), "boundaryEvent");
-                coverageTestRunState.addCoveredElement(compensationBoundaryEvent);
-                coverageTestRunState.endCoveredElement(compensationBoundaryEvent);
+                final ProcessElementDictionary dictionary = ProcessElementDictionary.get(processDefinition);
+                final int ordinal = dictionary != null ? dictionary.getOrdinal(sourceEventId) : -1;
+
+                if (ordinal >= 0) {
+                    coverageTestRunState.addCoveredFlowNode(dictionary, ordinal, sourceEventInstanceId, rootProcessInstanceId);
+                    coverageTestRunState.endCoveredFlowNode(dictionary, ordinal, sourceEventInstanceId, rootProcessInstanceId);
+                } else {
+                    final CoveredFlowNode compensationBoundaryEvent = new CoveredFlowNode(processDefinitionKey, sourceEventId, sourceEventInstanceId, "boundaryEvent");
+                    compensationBoundaryEvent.setRootProcessInstanceId(rootProcessInstanceId);
+                    coverageTestRunState.addCoveredElement(compensationBoundaryEvent);
+                    coverageTestRunState.endCoveredElement(compensationBoundaryEvent);
+                }
 
             }
         }
     }
 
+    public FlowCovTestRunStateRegistry getCoverageTestRunStates() {
+        return coverageTestRunStates;
+    }
+
     public void setCoverageTestRunState(final FlowCovTestRunState coverageTestRunState) {
-        this.coverageTestRunState = coverageTestRunState;
+        coverageTestRunStates.setDefaultState(coverageTestRunState);
     }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.listeners;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.val;
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.persistence.deploy.Deployer;
+import org.camunda.bpm.engine.impl.persistence.entity.DeploymentEntity;
+import org.camunda.bpm.engine.repository.DecisionDefinition;
+import org.camunda.bpm.engine.repository.ProcessDefinition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deployer remembering the definitions of new deployments, so the coverage of a test method
+ * is initialized from the deployed artifacts instead of querying the database.
+ */
+public class CoverageDeployer implements Deployer {
+
+    /**
+     * Maximum number of deployments remembered, in case they are never taken.
+     */
+    private static final int MAX_DEPLOYMENTS = 64;
+
+    /**
+     * The definitions of the deployments not taken yet, accessed by the deployment ID.
+     */
+    private final Map<String, DeployedDefinitions> deployedDefinitions = Collections.synchronizedMap(
+            new LinkedHashMap<String, DeployedDefinitions>() {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, DeployedDefinitions> eldest) {
+                    return this.size() > MAX_DEPLOYMENTS;
+                }
+            });
+
+    @Override
+    public void deploy(final DeploymentEntity deployment) {
+
+        // Deployments parsed again after a cache eviction only contain part of their definitions
+        if (!deployment.isNew()) {
+            return;
+        }
+
+        deployedDefinitions.put(deployment.getId(), new DeployedDefinitions(
+                copyOf(deployment.getDeployedProcessDefinitions()),
+                copyOf(deployment.getDeployedDecisionDefinitions())));
+    }
+
+    /**
+     * Takes the definitions of the given deployment, forgetting them.
+     *
+     * @param deploymentId
+     * @return The definitions or null if the deployment is unknown.
+     */
+    public DeployedDefinitions takeDeployedDefinitions(final String deploymentId) {
+        return deployedDefinitions.remove(deploymentId);
+    }
+
+    /**
+     * Retrieves the definitions of the given deployment from the coverage deployer of the engine,
+     * querying the repository if the deployer does not know the deployment.
+     *
+     * @param processEngine
+     * @param deploymentId
+     * @return
+     */
+    public static DeployedDefinitions getDeployedDefinitions(final ProcessEngine processEngine, final String deploymentId) {
+
+        val processEngineConfiguration = (ProcessEngineConfigurationImpl) processEngine.getProcessEngineConfiguration();
+        if (processEngineConfiguration.getCustomPostDeployers() != null) {
+            for (final Deployer deployer : processEngineConfiguration.getCustomPostDeployers()) {
+                if (deployer instanceof CoverageDeployer) {
+                    final DeployedDefinitions definitions = ((CoverageDeployer) deployer).takeDeployedDefinitions(deploymentId);
+                    if (definitions != null) {
+                        return definitions;
+                    }
+                }
+            }
+        }
+
+        return new DeployedDefinitions(
+                processEngine.getRepositoryService()
+                        .createProcessDefinitionQuery()
+                        .deploymentId(deploymentId)
+                        .list(),
+                processEngine.getRepositoryService()
+                        .createDecisionDefinitionQuery()
+                        .deploymentId(deploymentId)
+                        .list());
+    }
+
+    private static <T> List<T> copyOf(final List<? extends T> definitions) {
+        return definitions == null ? Collections.emptyList() : new ArrayList<>(definitions);
+    }
+
+    /**
+     * Process and decision definitions of a deployment.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class DeployedDefinitions {
+
+        private final List<ProcessDefinition> processDefinitions;
+
+        private final List<DecisionDefinition> decisionDefinitions;
+
+    }
+
+}
@@ -17,9 +17,10 @@
 package io.flowcov.camunda.listeners;
 
 import io.flowcov.camunda.junit.FlowCovTestRunState;
-import io.flowcov.camunda.model.CoveredDmnRule;
-import lombok.val;
+import io.flowcov.camunda.junit.FlowCovTestRunStateRegistry;
 import org.camunda.bpm.engine.history.HistoricDecisionOutputInstance;
+import org.camunda.bpm.engine.impl.context.Context;
+import org.camunda.bpm.engine.impl.dmn.entity.repository.DecisionDefinitionEntity;
 import org.camunda.bpm.engine.impl.history.event.HistoricDecisionEvaluationEvent;
 import org.camunda.bpm.engine.impl.history.event.HistoricDecisionInstanceEntity;
 import org.camunda.bpm.engine.impl.history.event.HistoryEvent;
@@ -28,68 +29,153 @@ import org.camunda.bpm.engine.impl.history.handler.DbHistoryEventHandler;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * Extends the {@link DbHistoryEventHandler} in order to notify the process test
- * coverage of a covered rule.
+ * coverage of a covered rule. Combines the coverage recording with the database
+ * persistence, which can be limited by the {@link HistoryPersistenceMode}.
  */
 public class CoverageHistoryEventHandler extends DbHistoryEventHandler {
 
     private Logger logger = Logger.getLogger(this.getClass().getCanonicalName());
 
     /**
-     * The state of the currently running coverage test.
+     * The states of the currently running coverage tests, usually shared by the coverage listeners of an engine.
      */
-    private FlowCovTestRunState coverageTestRunState;
+    private final FlowCovTestRunStateRegistry coverageTestRunStates;
+
+    /**
+     * Which history events are written to the database.
+     */
+    private HistoryPersistenceMode persistenceMode = HistoryPersistenceMode.ALL;
+
+    /**
+     * Types of the history events written to the database in {@link HistoryPersistenceMode#SELECTED} mode.
+     */
+    private List<Class<? extends HistoryEvent>> persistedEventTypes = new ArrayList<>();
 
     public CoverageHistoryEventHandler() {
+        this(new FlowCovTestRunStateRegistry());
+    }
+
+    public CoverageHistoryEventHandler(final FlowCovTestRunStateRegistry coverageTestRunStates) {
+        this.coverageTestRunStates = coverageTestRunStates;
     }
 
     @Override
     public void handleEvent(final HistoryEvent historyEvent) {
-        super.handleEvent(historyEvent);
 
-        if (historyEvent instanceof HistoricDecisionEvaluationEvent) {
+        if (this.isPersisted(historyEvent)) {
+            super.handleEvent(historyEvent);
+        }
+
+        if (CoverageSwitch.isEnabled() && historyEvent instanceof HistoricDecisionEvaluationEvent) {
 
-            val decisionEvent = (HistoricDecisionEvaluationEvent) historyEvent;
-            val rules = this.parseHistoricDecisionInstanceEntity(decisionEvent.getRootHistoricDecisionInstance());
+            final HistoricDecisionEvaluationEvent decisionEvent = (HistoricDecisionEvaluationEvent) historyEvent;
+            this.addCoveredRules(decisionEvent.getRootHistoricDecisionInstance());
 
-            if (decisionEvent.getRequiredHistoricDecisionInstances() != null && !decisionEvent.getRequiredHistoricDecisionInstances().isEmpty()) {
-                val requiredRules = decisionEvent.getRequiredHistoricDecisionInstances()
-                        .stream()
-                        .map(this::parseHistoricDecisionInstanceEntity)
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList());
-                rules.addAll(requiredRules);
+            if (decisionEvent.getRequiredHistoricDecisionInstances() != null) {
+                for (final HistoricDecisionInstanceEntity instance : decisionEvent.getRequiredHistoricDecisionInstances()) {
+                    this.addCoveredRules(instance);
+                }
             }
+        }
+
+    }
 
-            coverageTestRunState.addCoveredRules(rules);
+    /**
+     * Records the rules matched by a decision evaluation. The outputs of a rule are adjacent,
+     * so repeated rule IDs are skipped without collecting them.
+     *
+     * @param instance
+     */
+    private void addCoveredRules(final HistoricDecisionInstanceEntity instance) {
+
+        final List<HistoricDecisionOutputInstance> outputs = instance.getOutputs();
+        if (outputs == null) {
+            return;
+        }
+
+        final String decisionKey = instance.getDecisionDefinitionKey();
+        if (!CoverageSwitch.isEnabled(decisionKey)) {
+            return;
         }
 
+        final FlowCovTestRunState coverageTestRunState = coverageTestRunStates.resolve(this.getDeploymentId(instance),
+                instance.getRootProcessInstanceId());
+        if (coverageTestRunState == null) {
+            return;
+        }
+
+        String previousRuleId = null;
+        for (int i = 0; i < outputs.size(); i++) {
+            final String ruleId = outputs.get(i).getRuleId();
+            if (i == 0 || !Objects.equals(ruleId, previousRuleId)) {
+                coverageTestRunState.addCoveredRule(decisionKey, ruleId);
+                previousRuleId = ruleId;
+            }
+        }
     }
 
-    private List<CoveredDmnRule> parseHistoricDecisionInstanceEntity(final HistoricDecisionInstanceEntity instance) {
+    /**
+     * Resolves the deployment of the evaluated decision from the deployment cache, only if a test
+     * registered its state by deployment. States of known process instances take precedence anyway.
+     *
+     * @param instance
+     * @return The deployment ID or null if unknown.
+     */
+    private String getDeploymentId(final HistoricDecisionInstanceEntity instance) {
+
+        if (!coverageTestRunStates.hasDeploymentStates() || Context.getProcessEngineConfiguration() == null) {
+            return null;
+        }
+
+        final DecisionDefinitionEntity decisionDefinition = Context.getProcessEngineConfiguration().getDeploymentCache()
+                .findDecisionDefinitionFromCache(instance.getDecisionDefinitionId());
+        return decisionDefinition != null ? decisionDefinition.getDeploymentId() : null;
+    }
 
-        if (instance.getOutputs() == null || instance.getOutputs().isEmpty()) {
-            return new ArrayList<>();
+    private boolean isPersisted(final HistoryEvent historyEvent) {
+
+        switch (persistenceMode) {
+            case NONE:
+                return false;
+            case SELECTED:
+                for (final Class<? extends HistoryEvent> eventType : persistedEventTypes) {
+                    if (eventType.isInstance(historyEvent)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return true;
         }
+    }
+
+    public HistoryPersistenceMode getPersistenceMode() {
+        return persistenceMode;
+    }
+
+    public void setPersistenceMode(final HistoryPersistenceMode persistenceMode) {
+        this.persistenceMode = persistenceMode;
+    }
+
+    public List<Class<? extends HistoryEvent>> getPersistedEventTypes() {
+        return persistedEventTypes;
+    }
+
+    public void setPersistedEventTypes(final Collection<Class<? extends HistoryEvent>> persistedEventTypes) {
+        this.persistedEventTypes = new ArrayList<>(persistedEventTypes);
+    }
 
-        return instance.getOutputs().stream()
-                .map(HistoricDecisionOutputInstance::getRuleId)
-                .distinct()
-                .map(rule -> CoveredDmnRule.builder()
-                        .decisionKey(instance.getDecisionDefinitionKey())
-                        .ruleId(rule)
-                        .drdKey(instance.getDecisionRequirementsDefinitionKey())
-                        .build()
-                )
-                .collect(Collectors.toList());
+    public FlowCovTestRunStateRegistry getCoverageTestRunStates() {
+        return coverageTestRunStates;
     }
 
     public void setCoverageTestRunState(final FlowCovTestRunState coverageTestRunState) {
-        this.coverageTestRunState = coverageTestRunState;
+        coverageTestRunStates.setDefaultState(coverageTestRunState);
     }
 
 }
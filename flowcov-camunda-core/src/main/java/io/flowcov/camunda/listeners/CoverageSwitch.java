@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.listeners;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runtime switch of the coverage recording. While switched off, the execution listeners and
+ * event handlers of the coverage extensions return immediately, so an engine configured with
+ * coverage can be shared with tests that must not pay for it. History events are still
+ * persisted according to the {@link HistoryPersistenceMode}.
+ * <p>
+ * Coverage can be switched off globally or for single process definition and decision keys.
+ */
+public final class CoverageSwitch {
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Process definition and decision keys switched off.
+     */
+    private static final Set<String> disabledKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether any key is switched off, sparing the set lookup in the common case.
+     */
+    private static volatile boolean anyKeyDisabled;
+
+    private CoverageSwitch() {
+    }
+
+    /**
+     * Switches the coverage recording on. Keys switched off individually stay off.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Switches the coverage recording off.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Switches the coverage recording of a process definition or decision on again.
+     *
+     * @param key The process definition or decision key.
+     */
+    public static synchronized void enable(final String key) {
+        disabledKeys.remove(key);
+        anyKeyDisabled = !disabledKeys.isEmpty();
+    }
+
+    /**
+     * Switches the coverage recording of a process definition or decision off.
+     *
+     * @param key The process definition or decision key.
+     */
+    public static synchronized void disable(final String key) {
+        disabledKeys.add(key);
+        anyKeyDisabled = true;
+    }
+
+    /**
+     * Checks whether coverage is recorded at all.
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Checks whether the coverage of a process definition or decision is recorded.
+     *
+     * @param key The process definition or decision key.
+     * @return
+     */
+    public static boolean isEnabled(final String key) {
+        return enabled && !(anyKeyDisabled && key != null && disabledKeys.contains(key));
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.listeners;
+
+import io.flowcov.camunda.junit.FlowCovTestRunState;
+import io.flowcov.camunda.model.ProcessElementDictionary;
+import lombok.Getter;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.camunda.bpm.engine.delegate.ExecutionListener;
+import org.camunda.bpm.engine.impl.persistence.entity.ExecutionEntity;
+
+/**
+ * Execution listener attached to a single activity or sequence flow. The element is identified
+ * by the element dictionary of its process definition and its ordinal in that dictionary, both
+ * assigned at parse time, so events are recorded by ordinal without repository or model lookups.
+ */
+public class ElementCoverageExecutionListener implements ExecutionListener {
+
+    /**
+     * The parse listener holding the states of the currently running coverage tests.
+     */
+    private final ElementCoverageParseListener parseListener;
+
+    /**
+     * The element dictionary of the process definition the element belongs to.
+     */
+    @Getter
+    private final ProcessElementDictionary elementDictionary;
+
+    /**
+     * The ordinal of the element in the element dictionary.
+     */
+    @Getter
+    private final int elementOrdinal;
+
+    /**
+     * The ID of the deployment of the process definition, resolving the state the element is recorded by.
+     */
+    @Getter
+    private final String deploymentId;
+
+    public ElementCoverageExecutionListener(final ElementCoverageParseListener parseListener,
+                                            final ProcessElementDictionary elementDictionary, final int elementOrdinal,
+                                            final String deploymentId) {
+        this.parseListener = parseListener;
+        this.elementDictionary = elementDictionary;
+        this.elementOrdinal = elementOrdinal;
+        this.deploymentId = deploymentId;
+    }
+
+    @Override
+    public void notify(final DelegateExecution execution) {
+
+        if (!CoverageSwitch.isEnabled(elementDictionary.getProcessDefinitionKey())) {
+            return;
+        }
+
+        final String rootProcessInstanceId = getRootProcessInstanceId(execution);
+        final FlowCovTestRunState state = parseListener.getCoverageTestRunState(deploymentId, rootProcessInstanceId);
+        if (state == null) {
+            return;
+        }
+
+        final String eventName = execution.getEventName();
+
+        if (EVENTNAME_START.equals(eventName)) {
+            state.addCoveredFlowNode(elementDictionary, elementOrdinal, execution.getActivityInstanceId(),
+                    rootProcessInstanceId);
+            state.addPathElement(elementDictionary, elementOrdinal, execution.getProcessInstanceId());
+        } else if (EVENTNAME_END.equals(eventName)) {
+            state.endCoveredFlowNode(elementDictionary, elementOrdinal, execution.getActivityInstanceId(),
+                    rootProcessInstanceId);
+        } else if (EVENTNAME_TAKE.equals(eventName)) {
+            state.addCoveredSequenceFlow(elementDictionary, elementOrdinal, rootProcessInstanceId);
+            state.addPathElement(elementDictionary, elementOrdinal, execution.getProcessInstanceId());
+        }
+    }
+
+    /**
+     * Retrieves the ID of the root process instance, which differs from the process instance
+     * for instances started by a call activity.
+     *
+     * @param execution
+     * @return
+     */
+    static String getRootProcessInstanceId(final DelegateExecution execution) {
+
+        if (execution instanceof ExecutionEntity) {
+            final String rootProcessInstanceId = ((ExecutionEntity) execution).getRootProcessInstanceId();
+            if (rootProcessInstanceId != null) {
+                return rootProcessInstanceId;
+            }
+        }
+        return execution.getProcessInstanceId();
+    }
+
+    public String getProcessDefinitionKey() {
+        return elementDictionary.getProcessDefinitionKey();
+    }
+
+    public String getElementId() {
+        return elementDictionary.getElementId(elementOrdinal);
+    }
+
+    /**
+     * Retrieves the BPMN type name of the element, null for sequence flows.
+     *
+     * @return
+     */
+    public String getElementType() {
+        return elementDictionary.getElementType(elementOrdinal);
+    }
+
+}
@@ -17,19 +17,26 @@
 package io.flowcov.camunda.listeners;
 
 import io.flowcov.camunda.junit.FlowCovTestRunState;
-import io.flowcov.camunda.model.CoveredFlowNode;
-import io.flowcov.camunda.model.CoveredSequenceFlow;
+import io.flowcov.camunda.junit.FlowCovTestRunStateRegistry;
+import io.flowcov.camunda.model.ProcessElementDictionary;
+import io.flowcov.camunda.util.KeyMatcher;
 import lombok.val;
-import org.camunda.bpm.engine.delegate.DelegateExecution;
-import org.camunda.bpm.engine.delegate.ExecutionListener;
+import org.camunda.bpm.engine.ProcessEngine;
 import org.camunda.bpm.engine.impl.bpmn.parser.AbstractBpmnParseListener;
+import org.camunda.bpm.engine.impl.bpmn.parser.BpmnParseListener;
+import org.camunda.bpm.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.camunda.bpm.engine.impl.persistence.entity.ProcessDefinitionEntity;
+import org.camunda.bpm.engine.impl.pvm.PvmProcessDefinition;
 import org.camunda.bpm.engine.impl.pvm.process.ActivityImpl;
 import org.camunda.bpm.engine.impl.pvm.process.ScopeImpl;
 import org.camunda.bpm.engine.impl.pvm.process.TransitionImpl;
 import org.camunda.bpm.engine.impl.util.xml.Element;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static org.camunda.bpm.engine.delegate.ExecutionListener.*;
 
@@ -39,55 +46,45 @@ import static org.camunda.bpm.engine.delegate.ExecutionListener.*;
 public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     /**
-     * The state of the currently running coverage test.
+     * The states of the currently running coverage tests, usually shared by the coverage listeners of an engine.
      */
-    private FlowCovTestRunState coverageTestRunState;
+    private final FlowCovTestRunStateRegistry coverageTestRunStates;
 
-    private static final List<String> EXECUTION_EVENTS = Arrays.asList(
-            EVENTNAME_START,
-            EVENTNAME_END);
-
-    private final ExecutionListener executionListener;
-
-    public ElementCoverageParseListener() {
-        this.executionListener = this::execute;
-    }
-
-    private void execute(final DelegateExecution execution) {
+    /**
+     * Which execution listeners are attached.
+     */
+    private final InstrumentationLevel instrumentationLevel;
 
-        if (EVENTNAME_START.equals(execution.getEventName())) {
-            val coveredActivity = this.createCoveredFlowNode(execution);
-            coverageTestRunState.addCoveredElement(coveredActivity);
-        }
+    /**
+     * The flow node events listened to according to the instrumentation level.
+     */
+    private final List<String> executionEvents;
 
-        if (EVENTNAME_END.equals(execution.getEventName())) {
-            val coveredActivity = this.createCoveredFlowNode(execution);
-            coverageTestRunState.endCoveredElement(coveredActivity);
-        }
+    /**
+     * The exclusions of the test deploying on the current thread, null outside of its deployment.
+     */
+    private final ThreadLocal<KeyMatcher> deploymentExclusions = new ThreadLocal<>();
 
-        if (EVENTNAME_TAKE.equals(execution.getEventName())) {
-            val coveredSequenceFlow = new CoveredSequenceFlow(
-                    this.getProcessKey(execution),
-                    execution.getCurrentTransitionId());
-            coverageTestRunState.addCoveredElement(coveredSequenceFlow);
-        }
+    public ElementCoverageParseListener() {
+        this(InstrumentationLevel.FULL);
     }
 
-    private CoveredFlowNode createCoveredFlowNode(final DelegateExecution execution) {
-        return new CoveredFlowNode(
-                this.getProcessKey(execution),
-                execution.getBpmnModelElementInstance().getId(),
-                execution.getActivityInstanceId(),
-                execution.getBpmnModelElementInstance().getElementType().getTypeName());
+    public ElementCoverageParseListener(final InstrumentationLevel instrumentationLevel) {
+        this(instrumentationLevel, new FlowCovTestRunStateRegistry());
     }
 
-    private String getProcessKey(final DelegateExecution delegateExecution) {
-        return delegateExecution.getProcessEngineServices().getRepositoryService().getProcessDefinition(delegateExecution.getProcessDefinitionId()).getKey();
+    public ElementCoverageParseListener(final InstrumentationLevel instrumentationLevel,
+                                        final FlowCovTestRunStateRegistry coverageTestRunStates) {
+        this.coverageTestRunStates = coverageTestRunStates;
+        this.instrumentationLevel = instrumentationLevel;
+        this.executionEvents = instrumentationLevel.isFlowNodeEnds()
+                ? Arrays.asList(EVENTNAME_START, EVENTNAME_END)
+                : Collections.singletonList(EVENTNAME_START);
     }
 
     @Override
     public void parseUserTask(final Element userTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(userTaskElement, activity);
     }
 
     @Override
@@ -97,7 +94,7 @@ public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     @Override
     public void parseBoundaryEvent(final Element boundaryEventElement, final ScopeImpl scopeElement, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(boundaryEventElement, activity);
     }
 
     @Override
@@ -117,42 +114,37 @@ public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     @Override
     public void parseBusinessRuleTask(final Element businessRuleTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(businessRuleTaskElement, activity);
     }
 
     @Override
     public void parseCallActivity(final Element callActivityElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
-    }
-
-    @Override
-    public void parseCompensateEventDefinition(final Element compensateEventDefinition, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(callActivityElement, activity);
     }
 
     @Override
     public void parseEndEvent(final Element endEventElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(endEventElement, activity);
     }
 
     @Override
     public void parseEventBasedGateway(final Element eventBasedGwElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(eventBasedGwElement, activity);
     }
 
     @Override
     public void parseExclusiveGateway(final Element exclusiveGwElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(exclusiveGwElement, activity);
     }
 
     @Override
     public void parseInclusiveGateway(final Element inclusiveGwElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(inclusiveGwElement, activity);
     }
 
     @Override
     public void parseIntermediateCatchEvent(final Element intermediateEventElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(intermediateEventElement, activity);
     }
 
     @Override
@@ -167,7 +159,7 @@ public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     @Override
     public void parseIntermediateThrowEvent(final Element intermediateEventElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(intermediateEventElement, activity);
     }
 
     @Override
@@ -177,7 +169,7 @@ public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     @Override
     public void parseManualTask(final Element manualTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(manualTaskElement, activity);
     }
 
     @Override
@@ -188,29 +180,32 @@ public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     @Override
     public void parseParallelGateway(final Element parallelGwElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(parallelGwElement, activity);
     }
 
-//    @Override
-//    public void parseProcess(final Element processElement, final ProcessDefinitionEntity processDefinition) {
-//        for (final String event : EXECUTION_EVENTS) {
-//            processDefinition.addListener(event, executionListener);
-//        }
-//    }
+    @Override
+    public void parseProcess(final Element processElement, final ProcessDefinitionEntity processDefinition) {
+        if (this.isExcluded(processDefinition)) {
+            return;
+        }
+
+        processDefinition.addListener(EVENTNAME_END, new ProcessEndCoverageExecutionListener(
+                this, this.getElementDictionary(processDefinition), processDefinition.getDeploymentId()));
+    }
 
     @Override
     public void parseReceiveTask(final Element receiveTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(receiveTaskElement, activity);
     }
 
     @Override
     public void parseScriptTask(final Element scriptTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(scriptTaskElement, activity);
     }
 
     @Override
     public void parseSendTask(final Element sendTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(sendTaskElement, activity);
     }
 
     @Override
@@ -220,41 +215,139 @@ public class ElementCoverageParseListener extends AbstractBpmnParseListener {
 
     @Override
     public void parseServiceTask(final Element serviceTaskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(serviceTaskElement, activity);
     }
 
     @Override
     public void parseStartEvent(final Element startEventElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(startEventElement, activity);
     }
 
     @Override
     public void parseSubProcess(final Element subProcessElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(subProcessElement, activity);
     }
 
     @Override
     public void parseTask(final Element taskElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(taskElement, activity);
     }
 
     @Override
     public void parseTransaction(final Element transactionElement, final ScopeImpl scope, final ActivityImpl activity) {
-        this.addExecutionListener(activity);
+        this.addExecutionListener(transactionElement, activity);
     }
 
-    private void addExecutionListener(final ActivityImpl activity) {
-        for (final String event : EXECUTION_EVENTS) {
+    private void addExecutionListener(final Element element, final ActivityImpl activity) {
+        this.addExecutionListener(activity, element.getTagName());
+    }
+
+    private void addExecutionListener(final ActivityImpl activity, final String elementType) {
+        if (this.isExcluded(activity.getProcessDefinition())) {
+            return;
+        }
+
+        final ProcessElementDictionary dictionary = this.getElementDictionary(activity.getProcessDefinition());
+        final ElementCoverageExecutionListener executionListener = new ElementCoverageExecutionListener(
+                this, dictionary, dictionary.registerFlowNode(activity.getId(), elementType),
+                this.getDeploymentId(activity.getProcessDefinition()));
+
+        for (final String event : executionEvents) {
             activity.addListener(event, executionListener);
         }
     }
 
     private void addExecutionListener(final TransitionImpl transition) {
+        if (!instrumentationLevel.isSequenceFlowTakes() || this.isExcluded(transition.getProcessDefinition())) {
+            return;
+        }
+
+        final ProcessElementDictionary dictionary = this.getElementDictionary(transition.getProcessDefinition());
+        final ElementCoverageExecutionListener executionListener = new ElementCoverageExecutionListener(
+                this, dictionary, dictionary.registerSequenceFlow(transition.getId()),
+                this.getDeploymentId(transition.getProcessDefinition()));
+
         transition.addListener(EVENTNAME_TAKE, executionListener);
     }
 
+    /**
+     * Checks whether the process definition currently parsed is excluded by the test deploying it,
+     * in which case it is not instrumented at all. Process definitions parsed outside of such a
+     * deployment, e.g. after a cache eviction, are instrumented and only excluded when recorded.
+     */
+    private boolean isExcluded(final PvmProcessDefinition processDefinition) {
+        final KeyMatcher exclusions = deploymentExclusions.get();
+        return exclusions != null && exclusions.matches(((ProcessDefinitionEntity) processDefinition).getKey());
+    }
+
+    /**
+     * Deploys with the exclusions of a test, so the coverage parse listeners of the engine do not
+     * instrument the excluded process definitions parsed by the deployment.
+     *
+     * @param processEngine
+     * @param exclusions    The process definition keys excluded by the test.
+     * @param deployment    Deploys and returns the deployment ID.
+     * @return The deployment ID.
+     */
+    public static String deployWithExclusions(final ProcessEngine processEngine, final KeyMatcher exclusions,
+                                              final Supplier<String> deployment) {
+
+        val processEngineConfiguration = (ProcessEngineConfigurationImpl) processEngine.getProcessEngineConfiguration();
+        final List<ElementCoverageParseListener> parseListeners = new ArrayList<>();
+        if (processEngineConfiguration.getCustomPostBPMNParseListeners() != null) {
+            for (final BpmnParseListener parseListener : processEngineConfiguration.getCustomPostBPMNParseListeners()) {
+                if (parseListener instanceof ElementCoverageParseListener) {
+                    parseListeners.add((ElementCoverageParseListener) parseListener);
+                }
+            }
+        }
+
+        parseListeners.forEach(parseListener -> parseListener.deploymentExclusions.set(exclusions));
+        try {
+            return deployment.get();
+        } finally {
+            parseListeners.forEach(parseListener -> parseListener.deploymentExclusions.remove());
+        }
+    }
+
+    /**
+     * Retrieves the element dictionary of the process definition currently parsed.
+     * The key is set on the process definition before its elements are parsed.
+     */
+    private ProcessElementDictionary getElementDictionary(final PvmProcessDefinition processDefinition) {
+        final ProcessDefinitionEntity processDefinitionEntity = (ProcessDefinitionEntity) processDefinition;
+        return ProcessElementDictionary.getOrCreate(processDefinitionEntity, processDefinitionEntity.getKey());
+    }
+
+    /**
+     * Retrieves the ID of the deployment of the process definition currently parsed.
+     * The deployment ID is set on the process definition before its elements are parsed.
+     */
+    private String getDeploymentId(final PvmProcessDefinition processDefinition) {
+        return ((ProcessDefinitionEntity) processDefinition).getDeploymentId();
+    }
+
+    public InstrumentationLevel getInstrumentationLevel() {
+        return instrumentationLevel;
+    }
+
+    /**
+     * Retrieves the state recording the events of a process instance of a deployment.
+     *
+     * @param deploymentId
+     * @param rootProcessInstanceId
+     * @return The state or null if no coverage test is running.
+     */
+    FlowCovTestRunState getCoverageTestRunState(final String deploymentId, final String rootProcessInstanceId) {
+        return coverageTestRunStates.resolve(deploymentId, rootProcessInstanceId);
+    }
+
+    public FlowCovTestRunStateRegistry getCoverageTestRunStates() {
+        return coverageTestRunStates;
+    }
+
     public void setCoverageTestRunState(final FlowCovTestRunState coverageTestRunState) {
-        this.coverageTestRunState = coverageTestRunState;
+        coverageTestRunStates.setDefaultState(coverageTestRunState);
     }
 
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.listeners;
+
+/**
+ * Controls which history events the {@link CoverageHistoryEventHandler} writes to the
+ * history database tables. Coverage is recorded from the events in every mode.
+ */
+public enum HistoryPersistenceMode {
+
+    /**
+     * Persist all history events, like the default history event handler.
+     */
+    ALL,
+
+    /**
+     * Persist no history events. The history service won't find anything, but tests
+     * that only need coverage save the database round trips.
+     */
+    NONE,
+
+    /**
+     * Persist only history events of the configured types. Events updating an entity
+     * require the events creating it to be persisted as well.
+     */
+    SELECTED
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.listeners;
+
+/**
+ * Controls which execution listeners the {@link ElementCoverageParseListener} attaches
+ * to the parsed process definitions. Lower levels record less and cause fewer listener
+ * invocations and allocations per executed element.
+ */
+public enum InstrumentationLevel {
+
+    /**
+     * Record the starts of flow nodes only. Sufficient for flow node coverage, sequence
+     * flows are reported as not covered.
+     */
+    FLOW_NODES(false, false),
+
+    /**
+     * Record the starts of flow nodes and the takes of sequence flows.
+     */
+    FLOW_NODES_AND_SEQUENCE_FLOWS(true, false),
+
+    /**
+     * Record the starts and ends of flow nodes and the takes of sequence flows,
+     * providing the full ordered execution trace.
+     */
+    FULL(true, true);
+
+    private final boolean sequenceFlowTakes;
+
+    private final boolean flowNodeEnds;
+
+    InstrumentationLevel(final boolean sequenceFlowTakes, final boolean flowNodeEnds) {
+        this.sequenceFlowTakes = sequenceFlowTakes;
+        this.flowNodeEnds = flowNodeEnds;
+    }
+
+    /**
+     * Checks whether sequence flow takes are recorded.
+     *
+     * @return
+     */
+    public boolean isSequenceFlowTakes() {
+        return sequenceFlowTakes;
+    }
+
+    /**
+     * Checks whether flow node ends are recorded.
+     *
+     * @return
+     */
+    public boolean isFlowNodeEnds() {
+        return flowNodeEnds;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.listeners;
+
+import io.flowcov.camunda.junit.FlowCovTestRunState;
+import io.flowcov.camunda.model.ProcessElementDictionary;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.camunda.bpm.engine.delegate.ExecutionListener;
+import org.camunda.bpm.engine.impl.pvm.runtime.PvmExecutionImpl;
+
+/**
+ * Execution listener attached to a process definition, completing the path of a
+ * process instance when it ends. Paths of canceled or deleted instances remain partial.
+ */
+public class ProcessEndCoverageExecutionListener implements ExecutionListener {
+
+    /**
+     * The parse listener holding the states of the currently running coverage tests.
+     */
+    private final ElementCoverageParseListener parseListener;
+
+    /**
+     * The element dictionary of the process definition.
+     */
+    private final ProcessElementDictionary elementDictionary;
+
+    /**
+     * The ID of the deployment of the process definition.
+     */
+    private final String deploymentId;
+
+    public ProcessEndCoverageExecutionListener(final ElementCoverageParseListener parseListener,
+                                               final ProcessElementDictionary elementDictionary, final String deploymentId) {
+        this.parseListener = parseListener;
+        this.elementDictionary = elementDictionary;
+        this.deploymentId = deploymentId;
+    }
+
+    @Override
+    public void notify(final DelegateExecution execution) {
+
+        if (!CoverageSwitch.isEnabled(elementDictionary.getProcessDefinitionKey())) {
+            return;
+        }
+
+        final FlowCovTestRunState state = parseListener.getCoverageTestRunState(deploymentId,
+                ElementCoverageExecutionListener.getRootProcessInstanceId(execution));
+        if (state == null) {
+            return;
+        }
+
+        final boolean canceled = execution instanceof PvmExecutionImpl && ((PvmExecutionImpl) execution).isCanceled();
+        state.endProcessInstance(elementDictionary, execution.getProcessInstanceId(), !canceled);
+    }
+
+}
@@ -20,6 +20,7 @@ import org.camunda.bpm.engine.repository.DecisionDefinition;
 import org.camunda.bpm.engine.repository.ProcessDefinition;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -43,6 +44,15 @@ public interface AggregatedCoverage {
      */
     List<CoveredSequenceFlow> getCoveredSequenceFlows(String processDefinitionKey);
 
+    /**
+     * Retrieves the distinct paths of the process instances of the given process definition key
+     * with their occurrence counts.
+     *
+     * @param processDefinitionKey
+     * @return
+     */
+    Map<CoveredPath, Long> getCoveredPaths(String processDefinitionKey);
+
 
     /**
      * Retrieces covered dmn rules for the given decision key
@@ -52,6 +62,15 @@ public interface AggregatedCoverage {
      */
     Set<CoveredDmnRule> getCoveredDecisionRules(String decisionKey);
 
+    /**
+     * Retrieves the hit counts of all rules of the given decision key, including the rules
+     * that were never hit.
+     *
+     * @param decisionKey
+     * @return The hit counts accessed by the rule ID.
+     */
+    Map<String, Long> getRuleHitCounts(String decisionKey);
+
 
     /**
      * Retrieves the process definitions of the coverage.
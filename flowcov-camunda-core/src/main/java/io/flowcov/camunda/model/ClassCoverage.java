@@ -21,6 +21,7 @@ import org.camunda.bpm.engine.repository.ProcessDefinition;
 import org.junit.Assert;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -31,7 +32,7 @@ public class ClassCoverage implements AggregatedCoverage {
     /**
      * Map connecting the test method to the test method run coverage.
      */
-    private Map<String, MethodCoverage> testNameToMethodCoverage = new HashMap<String, MethodCoverage>();
+    private Map<String, MethodCoverage> testNameToMethodCoverage = new ConcurrentHashMap<>();
 
     /**
      * Adds a covered element to the test method coverage.
@@ -57,6 +58,85 @@ public class ClassCoverage implements AggregatedCoverage {
         testNameToMethodCoverage.get(currentTestMethodName).addCoveredDmnRules(coveredDmnRules);
     }
 
+    /**
+     * Counts the start of a flow node or the take of a sequence flow in the test method coverage.
+     *
+     * @param testName
+     * @param processDefinitionKey
+     * @param elementOrdinal
+     */
+    public void countExecutionStart(final String testName, final String processDefinitionKey, final int elementOrdinal) {
+
+        final MethodCoverage methodCoverage = testNameToMethodCoverage.get(testName);
+        if (methodCoverage != null) {
+            methodCoverage.countExecutionStart(processDefinitionKey, elementOrdinal);
+        }
+    }
+
+    /**
+     * Appends a flow node start or sequence flow take to the path of a process instance in the test method coverage.
+     *
+     * @param testName
+     * @param processDefinitionKey
+     * @param processInstanceId
+     * @param elementOrdinal
+     */
+    public void addPathElement(final String testName, final String processDefinitionKey, final String processInstanceId,
+                               final int elementOrdinal) {
+
+        final MethodCoverage methodCoverage = testNameToMethodCoverage.get(testName);
+        if (methodCoverage != null) {
+            methodCoverage.addPathElement(processDefinitionKey, processInstanceId, elementOrdinal);
+        }
+    }
+
+    /**
+     * Completes the path of an ended process instance in the test method coverage.
+     *
+     * @param testName
+     * @param processDefinitionKey
+     * @param processInstanceId
+     * @param completed
+     */
+    public void completePath(final String testName, final String processDefinitionKey, final String processInstanceId,
+                             final boolean completed) {
+
+        final MethodCoverage methodCoverage = testNameToMethodCoverage.get(testName);
+        if (methodCoverage != null) {
+            methodCoverage.completePath(processDefinitionKey, processInstanceId, completed);
+        }
+    }
+
+    /**
+     * Counts the end of a flow node in the test method coverage.
+     *
+     * @param testName
+     * @param processDefinitionKey
+     * @param elementOrdinal
+     */
+    public void countExecutionEnd(final String testName, final String processDefinitionKey, final int elementOrdinal) {
+
+        final MethodCoverage methodCoverage = testNameToMethodCoverage.get(testName);
+        if (methodCoverage != null) {
+            methodCoverage.countExecutionEnd(processDefinitionKey, elementOrdinal);
+        }
+    }
+
+    /**
+     * Adds a covered rule to the coverage of the test method.
+     *
+     * @param currentTestMethodName
+     * @param decisionKey
+     * @param ruleId
+     */
+    public void addCoveredRule(final String currentTestMethodName, final String decisionKey, final String ruleId) {
+
+        final MethodCoverage methodCoverage = testNameToMethodCoverage.get(currentTestMethodName);
+        if (methodCoverage != null) {
+            methodCoverage.addCoveredRule(decisionKey, ruleId);
+        }
+    }
+
     /**
      * Retrieves a test methods coverage.
      *
@@ -88,19 +168,96 @@ public class ClassCoverage implements AggregatedCoverage {
     }
 
 
+    /**
+     * Retrieves the flow nodes covered by any test method, each once. The covered element ordinals of
+     * each test method are resolved with the element dictionary of that test method.
+     */
     @Override
     public List<CoveredFlowNode> getCoveredFlowNodes(final String processDefinitionKey) {
-        return testNameToMethodCoverage.values().stream()
-                .map(obj -> obj.getCoveredFlowNodes(processDefinitionKey))
-                .flatMap(Collection::stream).collect(Collectors.toList());
+
+        final Map<String, CoveredFlowNode> coveredFlowNodes = new LinkedHashMap<>();
+        for (final MethodCoverage methodCoverage : testNameToMethodCoverage.values()) {
+
+            final ProcessElementDictionary dictionary = methodCoverage.getElementDictionary(processDefinitionKey);
+            if (dictionary == null) {
+                continue;
+            }
+
+            final BitSet ordinals = methodCoverage.getCoveredElementOrdinals(processDefinitionKey);
+            ordinals.and(dictionary.getFlowNodeOrdinals());
+            for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+                final String elementId = dictionary.getElementId(ordinal);
+                if (!coveredFlowNodes.containsKey(elementId)) {
+                    coveredFlowNodes.put(elementId, new CoveredFlowNode(processDefinitionKey, elementId, null,
+                            dictionary.getElementType(ordinal)));
+                }
+            }
+        }
+        return new ArrayList<>(coveredFlowNodes.values());
     }
 
+    /**
+     * Retrieves the sequence flows taken by any test method, each once. The covered element ordinals of
+     * each test method are resolved with the element dictionary of that test method.
+     */
     @Override
     public List<CoveredSequenceFlow> getCoveredSequenceFlows(final String processDefinitionKey) {
 
-        return testNameToMethodCoverage.values().stream()
-                .map(obj -> obj.getCoveredSequenceFlows(processDefinitionKey))
-                .flatMap(Collection::stream).collect(Collectors.toList());
+        final Map<String, CoveredSequenceFlow> coveredSequenceFlows = new LinkedHashMap<>();
+        for (final MethodCoverage methodCoverage : testNameToMethodCoverage.values()) {
+
+            final ProcessElementDictionary dictionary = methodCoverage.getElementDictionary(processDefinitionKey);
+            if (dictionary == null) {
+                continue;
+            }
+
+            final BitSet ordinals = methodCoverage.getCoveredElementOrdinals(processDefinitionKey);
+            ordinals.and(dictionary.getSequenceFlowOrdinals());
+            for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+                coveredSequenceFlows.computeIfAbsent(dictionary.getElementId(ordinal), elementId ->
+                        new CoveredSequenceFlow(processDefinitionKey, elementId));
+            }
+        }
+        return new ArrayList<>(coveredSequenceFlows.values());
+    }
+
+    /**
+     * Retrieves the element dictionary of the first test method that deployed the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return The dictionary or null if no test method deployed the process definition.
+     */
+    public ProcessElementDictionary getElementDictionary(final String processDefinitionKey) {
+
+        for (final MethodCoverage methodCoverage : testNameToMethodCoverage.values()) {
+            final ProcessElementDictionary dictionary = methodCoverage.getElementDictionary(processDefinitionKey);
+            if (dictionary != null) {
+                return dictionary;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the paths of all test methods whose element ordinals refer to the dictionary returned by
+     * {@link #getElementDictionary(String)}. Paths recorded against a differently parsed process definition
+     * are left out.
+     */
+    @Override
+    public Map<CoveredPath, Long> getCoveredPaths(final String processDefinitionKey) {
+
+        final ProcessElementDictionary dictionary = this.getElementDictionary(processDefinitionKey);
+        if (dictionary == null) {
+            return new HashMap<>();
+        }
+
+        final Map<CoveredPath, Long> paths = new HashMap<>();
+        for (final MethodCoverage methodCoverage : testNameToMethodCoverage.values()) {
+            if (dictionary.hasSameOrdinals(methodCoverage.getElementDictionary(processDefinitionKey))) {
+                methodCoverage.getCoveredPaths(processDefinitionKey).forEach((path, count) -> paths.merge(path, count, Long::sum));
+            }
+        }
+        return paths;
     }
 
     @Override
@@ -111,6 +268,16 @@ public class ClassCoverage implements AggregatedCoverage {
                 .collect(Collectors.toSet());
     }
 
+    @Override
+    public Map<String, Long> getRuleHitCounts(final String decisionKey) {
+
+        final Map<String, Long> hitCounts = new LinkedHashMap<>();
+        for (final MethodCoverage methodCoverage : testNameToMethodCoverage.values()) {
+            methodCoverage.getRuleHitCounts(decisionKey).forEach((ruleId, hitCount) -> hitCounts.merge(ruleId, hitCount, Long::sum));
+        }
+        return hitCounts;
+    }
+
     /**
      * Retrieves the process definitions of the coverage test.
      * Since there are multiple deployments (one for each test method) the first
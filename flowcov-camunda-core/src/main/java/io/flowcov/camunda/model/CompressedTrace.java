@@ -0,0 +1,406 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Execution trace of a process coverage that collapses repeated identical event sequences,
+ * e.g. loop iterations or multi-instance bodies, into runs with a repeat count.
+ * <p>
+ * An event is a flow node start or end or a sequence flow take together with its execution
+ * counter. A repetition only folds into a run if its events match the run's body and its
+ * counters are shifted by the same stride, so the trace expands to exactly the recorded
+ * events and counters. Repetitions are detected for bodies of up to {@link #MAX_PERIOD} events.
+ * <p>
+ * Nested loops are folded as well: if a sequence of up to {@link #MAX_RUN_PERIOD} runs repeats,
+ * e.g. an inner loop run followed by the remaining events of the outer loop body, the runs are
+ * unrolled into the body of a single run repeated per outer iteration. This requires the inner
+ * loops to repeat equally often in each outer iteration and the unrolled body to have at most
+ * {@link #MAX_UNROLLED_PERIOD} events; otherwise the trace keeps one run per inner loop.
+ */
+public class CompressedTrace {
+
+    public static final int START = 0;
+
+    public static final int END = 1;
+
+    public static final int TAKE = 2;
+
+    /**
+     * Maximum number of events of a repeated body.
+     */
+    static final int MAX_PERIOD = 64;
+
+    /**
+     * Maximum number of runs of a repeated sequence of runs.
+     */
+    static final int MAX_RUN_PERIOD = 8;
+
+    /**
+     * Maximum number of events of a body unrolled from a repeated sequence of runs.
+     */
+    static final int MAX_UNROLLED_PERIOD = 1024;
+
+    /**
+     * Completed runs in recording order.
+     */
+    private final List<Run> runs = new ArrayList<>();
+
+    /**
+     * Events not folded yet, or the events matching the body of the active run so far.
+     */
+    private int[] tailTokens = new int[2 * MAX_PERIOD + 1];
+
+    private long[] tailCounters = new long[2 * MAX_PERIOD + 1];
+
+    private int tailSize;
+
+    /**
+     * The last run if it may still be repeated further, otherwise null.
+     */
+    private Run activeRun;
+
+    /**
+     * Appends an event.
+     *
+     * @param elementOrdinal The ordinal of the element in the element dictionary.
+     * @param kind           {@link #START}, {@link #END} or {@link #TAKE}.
+     * @param counter        The execution counter of the event.
+     */
+    public synchronized void append(final int elementOrdinal, final int kind, final long counter) {
+
+        final int token = elementOrdinal * 4 + kind;
+
+        if (activeRun != null) {
+            final long expectedCounter = activeRun.base + activeRun.repeat * activeRun.stride + activeRun.offsets[tailSize];
+            if (activeRun.tokens[tailSize] == token && counter == expectedCounter) {
+                this.addToTail(token, counter);
+                if (tailSize == activeRun.size) {
+                    activeRun.repeat++;
+                    tailSize = 0;
+                }
+                return;
+            }
+
+            // The matched events remain in the tail as unfolded events
+            activeRun = null;
+        }
+
+        this.addToTail(token, counter);
+        this.fold();
+
+        if (activeRun == null && tailSize > 2 * MAX_PERIOD) {
+            this.flushTail(tailSize - 2 * MAX_PERIOD);
+        }
+    }
+
+    /**
+     * Retrieves a snapshot of the runs, including the events not folded yet.
+     *
+     * @return
+     */
+    public synchronized List<Run> getRuns() {
+
+        final List<Run> snapshot = new ArrayList<>(runs.size() + 1);
+        for (final Run run : runs) {
+            snapshot.add(run.copy());
+        }
+
+        // Events of an incomplete repetition or not folded yet
+        if (tailSize > 0) {
+            final Run literal = new Run(tailTokens, tailCounters, 0, tailSize);
+            if (activeRun == null && !snapshot.isEmpty() && snapshot.get(snapshot.size() - 1).repeat == 1) {
+                snapshot.get(snapshot.size() - 1).append(literal);
+            } else {
+                snapshot.add(literal);
+            }
+        }
+
+        return snapshot;
+    }
+
+    private void addToTail(final int token, final long counter) {
+        if (tailSize == tailTokens.length) {
+            tailTokens = Arrays.copyOf(tailTokens, tailSize * 2);
+            tailCounters = Arrays.copyOf(tailCounters, tailSize * 2);
+        }
+        tailTokens[tailSize] = token;
+        tailCounters[tailSize] = counter;
+        tailSize++;
+    }
+
+    /**
+     * Folds the end of the tail into a run if it consists of two equal repetitions.
+     */
+    private void fold() {
+
+        final int last = tailSize - 1;
+        for (int period = 1; period <= MAX_PERIOD && 2 * period <= tailSize; period++) {
+
+            if (tailTokens[last] != tailTokens[last - period]) {
+                continue;
+            }
+
+            final int first = tailSize - 2 * period;
+            final long stride = tailCounters[first + period] - tailCounters[first];
+
+            boolean repeated = true;
+            for (int i = first; i < first + period && repeated; i++) {
+                repeated = tailTokens[i] == tailTokens[i + period] && tailCounters[i + period] - tailCounters[i] == stride;
+            }
+
+            if (repeated) {
+                this.flushTail(first);
+                final Run run = new Run(tailTokens, tailCounters, 0, period);
+                run.stride = stride;
+                run.repeat = 2;
+                runs.add(run);
+                activeRun = run;
+                tailSize = 0;
+                this.foldRuns();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unrolls the completed runs before the active run into a single run if they end with two equal
+     * repetitions of a sequence of runs. The events of the active run are appended again, so they
+     * continue the unrolled run if they match its body.
+     */
+    private void foldRuns() {
+
+        final int completed = runs.size() - 1;
+        for (int period = 1; period <= MAX_RUN_PERIOD && 2 * period <= completed; period++) {
+
+            final int first = completed - 2 * period;
+            final long stride = runs.get(first + period).base - runs.get(first).base;
+
+            boolean repeated = true;
+            long unrolledSize = 0;
+            for (int i = first; i < first + period && repeated; i++) {
+                repeated = runs.get(i).isShiftedBy(runs.get(i + period), stride);
+                unrolledSize += (long) runs.get(i).size * runs.get(i).repeat;
+            }
+
+            if (repeated && unrolledSize <= MAX_UNROLLED_PERIOD) {
+
+                final int[] tokens = new int[(int) unrolledSize];
+                final long[] counters = new long[(int) unrolledSize];
+                int index = 0;
+                for (int i = first; i < first + period; i++) {
+                    index = runs.get(i).unroll(tokens, counters, index);
+                }
+
+                final Run unrolled = new Run(tokens, counters, 0, tokens.length);
+                unrolled.stride = stride;
+                unrolled.repeat = 2;
+
+                final Run pending = runs.get(completed);
+                runs.subList(first, runs.size()).clear();
+                runs.add(unrolled);
+                activeRun = unrolled;
+
+                final int[] pendingTokens = new int[pending.size * pending.repeat];
+                final long[] pendingCounters = new long[pendingTokens.length];
+                pending.unroll(pendingTokens, pendingCounters, 0);
+                for (int i = 0; i < pendingTokens.length; i++) {
+                    this.append(pendingTokens[i] / 4, pendingTokens[i] % 4, pendingCounters[i]);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the first events of the tail into a literal run.
+     */
+    private void flushTail(final int count) {
+
+        if (count == 0) {
+            return;
+        }
+
+        final Run literal = new Run(tailTokens, tailCounters, 0, count);
+        final Run previous = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (previous != null && previous.repeat == 1) {
+            previous.append(literal);
+        } else {
+            runs.add(literal);
+        }
+
+        System.arraycopy(tailTokens, count, tailTokens, 0, tailSize - count);
+        System.arraycopy(tailCounters, count, tailCounters, 0, tailSize - count);
+        tailSize -= count;
+    }
+
+    /**
+     * A sequence of events repeated a number of times. The counters of the events are
+     * the run's base counter plus their offset plus the stride per repetition.
+     */
+    public static class Run {
+
+        private int[] tokens;
+
+        private long[] offsets;
+
+        private int size;
+
+        private long base;
+
+        private long stride;
+
+        private int repeat = 1;
+
+        Run(final int[] tokens, final long[] counters, final int from, final int size) {
+            this.tokens = Arrays.copyOfRange(tokens, from, from + size);
+            this.offsets = new long[size];
+            this.size = size;
+            this.base = counters[from];
+            for (int i = 0; i < size; i++) {
+                offsets[i] = counters[from + i] - base;
+            }
+        }
+
+        private Run(final Run run) {
+            this.tokens = Arrays.copyOf(run.tokens, run.size);
+            this.offsets = Arrays.copyOf(run.offsets, run.size);
+            this.size = run.size;
+            this.base = run.base;
+            this.stride = run.stride;
+            this.repeat = run.repeat;
+        }
+
+        private Run copy() {
+            return new Run(this);
+        }
+
+        /**
+         * Appends the events of a literal run to this literal run.
+         */
+        private void append(final Run literal) {
+            if (size + literal.size > tokens.length) {
+                final int capacity = Math.max(tokens.length * 2, size + literal.size);
+                tokens = Arrays.copyOf(tokens, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+            }
+            for (int i = 0; i < literal.size; i++) {
+                tokens[size + i] = literal.tokens[i];
+                offsets[size + i] = literal.base + literal.offsets[i] - base;
+            }
+            size += literal.size;
+        }
+
+        /**
+         * Checks if the other run repeats the events of this run with all counters shifted by the given stride.
+         */
+        private boolean isShiftedBy(final Run other, final long shift) {
+            return size == other.size && repeat == other.repeat && stride == other.stride && other.base - base == shift
+                    && Arrays.equals(tokens, 0, size, other.tokens, 0, size)
+                    && Arrays.equals(offsets, 0, size, other.offsets, 0, size);
+        }
+
+        /**
+         * Writes all repetitions of the events into the arrays, starting at the given index.
+         *
+         * @return The index after the last written event.
+         */
+        private int unroll(final int[] tokens, final long[] counters, final int from) {
+            int index = from;
+            for (int repetition = 0; repetition < repeat; repetition++) {
+                for (int i = 0; i < size; i++) {
+                    tokens[index] = this.tokens[i];
+                    counters[index] = base + repetition * stride + offsets[i];
+                    index++;
+                }
+            }
+            return index;
+        }
+
+        /**
+         * Retrieves the number of events of the body.
+         *
+         * @return
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Retrieves the element ordinal of an event of the body.
+         *
+         * @param index
+         * @return
+         */
+        public int getElementOrdinal(final int index) {
+            return tokens[index] / 4;
+        }
+
+        /**
+         * Retrieves the kind of an event of the body: {@link #START}, {@link #END} or {@link #TAKE}.
+         *
+         * @param index
+         * @return
+         */
+        public int getKind(final int index) {
+            return tokens[index] % 4;
+        }
+
+        /**
+         * Retrieves the counter offset of an event of the body relative to the base counter.
+         *
+         * @param index
+         * @return
+         */
+        public long getOffset(final int index) {
+            return offsets[index];
+        }
+
+        /**
+         * Retrieves the counter of the first event of the first repetition.
+         *
+         * @return
+         */
+        public long getBase() {
+            return base;
+        }
+
+        /**
+         * Retrieves the counter distance between two repetitions.
+         *
+         * @return
+         */
+        public long getStride() {
+            return stride;
+        }
+
+        /**
+         * Retrieves the number of repetitions of the body.
+         *
+         * @return
+         */
+        public int getRepeat() {
+            return repeat;
+        }
+
+    }
+
+}
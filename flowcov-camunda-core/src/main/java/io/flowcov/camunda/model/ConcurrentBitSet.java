@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size bit set that can be set concurrently without locking. Bits are set with
+ * compare-and-set, so bits set by concurrent threads are never lost.
+ */
+public class ConcurrentBitSet {
+
+    private final int size;
+
+    private final AtomicLongArray words;
+
+    public ConcurrentBitSet(final int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Sets the bit at the index. Indexes outside of the set are ignored.
+     *
+     * @param index
+     */
+    public void set(final int index) {
+
+        if (index < 0 || index >= size) {
+            return;
+        }
+
+        final int wordIndex = index / Long.SIZE;
+        final long mask = 1L << index;
+        long word = words.get(wordIndex);
+        while ((word & mask) == 0 && !words.compareAndSet(wordIndex, word, word | mask)) {
+            word = words.get(wordIndex);
+        }
+    }
+
+    /**
+     * Retrieves a snapshot of the set bits.
+     *
+     * @return
+     */
+    public BitSet toBitSet() {
+        final long[] snapshot = new long[words.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = words.get(i);
+        }
+        return BitSet.valueOf(snapshot);
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
@@ -36,7 +36,18 @@ public abstract class CoveredElement {
     /**
      * The start time of the element
      */
-    protected Integer executionStartCounter;
+    protected Long executionStartCounter;
+
+    /**
+     * The ordinal of the element in the {@link ProcessElementDictionary} of its process definition, -1 if unknown.
+     */
+    protected int elementOrdinal = -1;
+
+    /**
+     * The ID of the root process instance the element was executed in, null if unknown.
+     */
+    @EqualsAndHashCode.Exclude
+    protected String rootProcessInstanceId;
 
     /**
      * Retrieves the element's ID.
@@ -36,7 +36,7 @@ public class CoveredFlowNode extends CoveredElement {
 
     private final String type;
 
-    private Integer executionEndCoutner;
+    private Long executionEndCoutner;
 
     public CoveredFlowNode(final String processDefinitionKey, final String flowNodeId, final String flowNodeInstanceId, final String type) {
         this.flowNodeId = flowNodeId;
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * A distinct path taken by process instances: the ordered flow node starts and sequence
+ * flow takes of a process instance, identified by a fingerprint hashed while recording.
+ */
+@Getter
+public class CoveredPath {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The ordinals of the elements in the {@link ProcessElementDictionary} of the process definition.
+     */
+    private final int[] elementOrdinals;
+
+    /**
+     * The FNV-1a hash of the element ordinals.
+     */
+    private final long fingerprint;
+
+    /**
+     * Whether the process instances completed. Paths of instances still running or canceled are partial.
+     */
+    private final boolean completed;
+
+    private CoveredPath(final int[] elementOrdinals, final long fingerprint, final boolean completed) {
+        this.elementOrdinals = elementOrdinals;
+        this.fingerprint = fingerprint;
+        this.completed = completed;
+    }
+
+    public int[] getElementOrdinals() {
+        return elementOrdinals.clone();
+    }
+
+    /**
+     * Retrieves the fingerprint as hexadecimal string.
+     *
+     * @return
+     */
+    public String getFingerprintHex() {
+        return String.format("%016x", fingerprint);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CoveredPath)) {
+            return false;
+        }
+        final CoveredPath other = (CoveredPath) o;
+        return fingerprint == other.fingerprint
+                && completed == other.completed
+                && Arrays.equals(elementOrdinals, other.elementOrdinals);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint) * 31 + (completed ? 1 : 0);
+    }
+
+    /**
+     * Records the path of a single process instance, updating the fingerprint with every element.
+     */
+    public static class Builder {
+
+        private int[] elementOrdinals = new int[16];
+
+        private int size;
+
+        private long fingerprint = FNV_OFFSET_BASIS;
+
+        /**
+         * Appends an element to the path.
+         *
+         * @param elementOrdinal
+         */
+        public synchronized void append(final int elementOrdinal) {
+            if (size == elementOrdinals.length) {
+                elementOrdinals = Arrays.copyOf(elementOrdinals, size * 2);
+            }
+            elementOrdinals[size++] = elementOrdinal;
+            fingerprint = (fingerprint ^ elementOrdinal) * FNV_PRIME;
+        }
+
+        /**
+         * Creates the path recorded so far.
+         *
+         * @param completed Whether the process instance ended.
+         * @return
+         */
+        public synchronized CoveredPath build(final boolean completed) {
+            return new CoveredPath(Arrays.copyOf(elementOrdinals, size), fingerprint, completed);
+        }
+
+    }
+
+}
@@ -20,17 +20,17 @@ import lombok.Getter;
 import lombok.ToString;
 import org.camunda.bpm.engine.ProcessEngine;
 import org.camunda.bpm.engine.repository.DecisionDefinition;
-import org.camunda.bpm.model.dmn.DmnModelInstance;
-import org.camunda.bpm.model.dmn.instance.Decision;
-import org.camunda.bpm.model.dmn.instance.DecisionRule;
-import org.camunda.bpm.model.xml.instance.ModelElementInstance;
 
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * Coverage of a process definition.
@@ -47,17 +47,21 @@ public class DecisionCoverage {
     private DecisionDefinition decisionDefinition;
 
     /**
-     * Covered Dmn Rules
+     * Hit counts of the rules unknown to the definition metadata, accessed by the rule ID.
      */
-    @Getter
-    private Set<CoveredDmnRule> coveredDmnRules = new HashSet<>();
+    private Map<String, LongAdder> unknownRuleHitCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Hit counts of the rules, indexed by the rule ordinal of the definition metadata.
+     */
+    private AtomicLongArray ruleHitCounts;
 
 
     /**
-     * Decision Rules of the definition
+     * Rules of the decision, shared between all coverages of the same DMN resource.
      */
     @Getter
-    private Set<DecisionRule> definitionDecisionRules;
+    private DecisionDefinitionMetadata definitionMetadata;
 
     /**
      * Constructor assembling a pristine decision coverage object from the
@@ -71,38 +75,99 @@ public class DecisionCoverage {
 
         this.decisionDefinition = decisionDefinition;
 
-        final DmnModelInstance modelInstance = processEngine.getRepositoryService().getDmnModelInstance(
-                this.getDecisionDefinitionId());
-        definitionDecisionRules = this.getAssignedRules(modelInstance.getModelElementsByType(DecisionRule.class));
+        definitionMetadata = DefinitionMetadataCache.getDecisionMetadata(processEngine, decisionDefinition);
+        ruleHitCounts = new AtomicLongArray(definitionMetadata.getRuleCount());
     }
 
-    private Set<DecisionRule> getAssignedRules(final Collection<DecisionRule> rules) {
-
-        return rules.stream()
-                .filter(this::isAssigned)
-                .collect(Collectors.toSet());
+    /**
+     * Adds a covered DMN Rule to the coverage.
+     *
+     * @param rules
+     */
+    public void addCoveredDmnRule(final List<CoveredDmnRule> rules) {
+        for (final CoveredDmnRule rule : rules) {
+            this.addCoveredRule(rule.getRuleId());
+        }
     }
 
-    private boolean isAssigned(final ModelElementInstance node) {
+    /**
+     * Adds a covered rule to the coverage, counting one hit.
+     *
+     * @param ruleId
+     */
+    public void addCoveredRule(final String ruleId) {
+
+        // Decisions without rules, e.g. literal expressions
+        if (ruleId == null) {
+            return;
+        }
+
+        final int ordinal = definitionMetadata.getRuleOrdinal(ruleId);
+        if (ordinal >= 0) {
+            ruleHitCounts.incrementAndGet(ordinal);
+        } else {
+            unknownRuleHitCounts.computeIfAbsent(ruleId, id -> new LongAdder()).increment();
+        }
+    }
 
-        if (node == null) {
-            return false;
+    /**
+     * Retrieves a snapshot of the covered rule ordinals.
+     *
+     * @return
+     */
+    public BitSet getCoveredRuleOrdinals() {
+        final BitSet ordinals = new BitSet(ruleHitCounts.length());
+        for (int ordinal = 0; ordinal < ruleHitCounts.length(); ordinal++) {
+            if (ruleHitCounts.get(ordinal) > 0) {
+                ordinals.set(ordinal);
+            }
         }
+        return ordinals;
+    }
 
-        if (node instanceof Decision) {
-            return ((Decision) node).getId().equals(decisionDefinition.getKey());
+    /**
+     * Retrieves a snapshot of the hit counts of all rules in document order, including the
+     * rules that were never hit, followed by hit rules unknown to the definition metadata.
+     *
+     * @return The hit counts accessed by the rule ID.
+     */
+    public Map<String, Long> getRuleHitCounts() {
+
+        final Map<String, Long> hitCounts = new LinkedHashMap<>();
+        for (int ordinal = 0; ordinal < ruleHitCounts.length(); ordinal++) {
+            hitCounts.put(definitionMetadata.getRuleId(ordinal), ruleHitCounts.get(ordinal));
         }
+        unknownRuleHitCounts.forEach((ruleId, hitCount) -> hitCounts.put(ruleId, hitCount.sum()));
 
-        return this.isAssigned(node.getParentElement());
+        return hitCounts;
     }
 
     /**
-     * Adds a covered DMN Rule to the coverage.
+     * Retrieves the covered rules.
      *
-     * @param rules
+     * @return
      */
-    public void addCoveredDmnRule(final List<CoveredDmnRule> rules) {
-        this.coveredDmnRules.addAll(rules);
+    public Set<CoveredDmnRule> getCoveredDmnRules() {
+
+        final Set<CoveredDmnRule> coveredDmnRules = new LinkedHashSet<>();
+
+        final BitSet ordinals = this.getCoveredRuleOrdinals();
+        for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+            coveredDmnRules.add(this.createCoveredDmnRule(definitionMetadata.getRuleId(ordinal)));
+        }
+
+        for (final String ruleId : unknownRuleHitCounts.keySet()) {
+            coveredDmnRules.add(this.createCoveredDmnRule(ruleId));
+        }
+        return coveredDmnRules;
+    }
+
+    private CoveredDmnRule createCoveredDmnRule(final String ruleId) {
+        return CoveredDmnRule.builder()
+                .decisionKey(decisionDefinition.getKey())
+                .ruleId(ruleId)
+                .drdKey(decisionDefinition.getDecisionRequirementsDefinitionKey())
+                .build();
     }
 
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+import org.camunda.bpm.model.dmn.DmnModelInstance;
+import org.camunda.bpm.model.dmn.instance.Decision;
+import org.camunda.bpm.model.dmn.instance.DecisionRule;
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable metadata of a decision in a DMN resource: the IDs of its rules in document order.
+ * The position of a rule is its ordinal. Shared by all coverages of equal resources.
+ */
+@Getter
+@ToString
+public class DecisionDefinitionMetadata {
+
+    /**
+     * The key of the decision.
+     */
+    private final String decisionKey;
+
+    /**
+     * IDs of the rules assigned to the decision.
+     */
+    private final List<String> ruleIds;
+
+    /**
+     * Ordinals of the rules, accessed by the rule ID.
+     */
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final Map<String, Integer> ruleOrdinals;
+
+    private DecisionDefinitionMetadata(final String decisionKey, final List<String> ruleIds) {
+        this.decisionKey = decisionKey;
+        this.ruleIds = Collections.unmodifiableList(ruleIds);
+
+        final Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < ruleIds.size(); i++) {
+            ordinals.put(ruleIds.get(i), i);
+        }
+        this.ruleOrdinals = Collections.unmodifiableMap(ordinals);
+    }
+
+    /**
+     * Collects the metadata of a decision of a DMN model.
+     *
+     * @param modelInstance
+     * @param decisionKey
+     * @return
+     */
+    public static DecisionDefinitionMetadata of(final DmnModelInstance modelInstance, final String decisionKey) {
+
+        final List<String> ruleIds = new ArrayList<>();
+        for (final DecisionRule rule : modelInstance.getModelElementsByType(DecisionRule.class)) {
+            if (isAssigned(rule, decisionKey)) {
+                ruleIds.add(rule.getId());
+            }
+        }
+
+        return new DecisionDefinitionMetadata(decisionKey, ruleIds);
+    }
+
+    private static boolean isAssigned(final ModelElementInstance node, final String decisionKey) {
+
+        if (node == null) {
+            return false;
+        }
+
+        if (node instanceof Decision) {
+            return ((Decision) node).getId().equals(decisionKey);
+        }
+
+        return isAssigned(node.getParentElement(), decisionKey);
+    }
+
+    /**
+     * Retrieves the ordinal of a rule.
+     *
+     * @param ruleId
+     * @return The ordinal or -1 if the rule is not part of the decision.
+     */
+    public int getRuleOrdinal(final String ruleId) {
+        final Integer ordinal = ruleOrdinals.get(ruleId);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * Retrieves the ID of a rule.
+     *
+     * @param ordinal
+     * @return
+     */
+    public String getRuleId(final int ordinal) {
+        return ruleIds.get(ordinal);
+    }
+
+    /**
+     * Retrieves the number of rules.
+     *
+     * @return
+     */
+    public int getRuleCount() {
+        return ruleIds.size();
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import io.flowcov.camunda.util.HashUtil;
+import org.apache.commons.io.IOUtils;
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.repository.DecisionDefinition;
+import org.camunda.bpm.engine.repository.ProcessDefinition;
+import org.camunda.bpm.model.bpmn.Bpmn;
+import org.camunda.bpm.model.dmn.Dmn;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM-wide cache of definition metadata keyed by the content hash of the deployed resource.
+ * Test methods redeploy the same resources over and over, so the models only need to be
+ * walked once per distinct resource content. Definitions looked up again, e.g. of shared
+ * deployments, are found by their ID without reading and hashing the resource.
+ */
+public class DefinitionMetadataCache {
+
+    /**
+     * Maximum number of definition IDs remembered, since every deployment creates new ones.
+     */
+    private static final int MAX_DEFINITION_IDS = 256;
+
+    private static final Map<String, ProcessDefinitionMetadata> processMetadata = new ConcurrentHashMap<>();
+
+    private static final Map<String, DecisionDefinitionMetadata> decisionMetadata = new ConcurrentHashMap<>();
+
+    /**
+     * The metadata of the process definitions looked up last, accessed by the process definition ID.
+     */
+    private static final Map<String, ProcessDefinitionMetadata> processDefinitionMetadata = createDefinitionIdMap();
+
+    /**
+     * The metadata of the decision definitions looked up last, accessed by the decision definition ID.
+     */
+    private static final Map<String, DecisionDefinitionMetadata> decisionDefinitionMetadata = createDefinitionIdMap();
+
+    private DefinitionMetadataCache() {
+    }
+
+    /**
+     * Retrieves the metadata of a deployed process definition.
+     *
+     * @param processEngine
+     * @param processDefinition
+     * @return
+     */
+    public static ProcessDefinitionMetadata getProcessMetadata(final ProcessEngine processEngine, final ProcessDefinition processDefinition) {
+
+        final ProcessDefinitionMetadata cached = processDefinitionMetadata.get(processDefinition.getId());
+        if (cached != null) {
+            return cached;
+        }
+
+        final byte[] resource = getResource(processEngine, processDefinition.getDeploymentId(), processDefinition.getResourceName());
+
+        final ProcessDefinitionMetadata metadata = processMetadata.computeIfAbsent(HashUtil.sha256(resource),
+                hash -> ProcessDefinitionMetadata.of(Bpmn.readModelFromStream(new ByteArrayInputStream(resource))));
+        processDefinitionMetadata.put(processDefinition.getId(), metadata);
+        return metadata;
+    }
+
+    /**
+     * Retrieves the metadata of a deployed decision definition.
+     *
+     * @param processEngine
+     * @param decisionDefinition
+     * @return
+     */
+    public static DecisionDefinitionMetadata getDecisionMetadata(final ProcessEngine processEngine, final DecisionDefinition decisionDefinition) {
+
+        final DecisionDefinitionMetadata cached = decisionDefinitionMetadata.get(decisionDefinition.getId());
+        if (cached != null) {
+            return cached;
+        }
+
+        final byte[] resource = getResource(processEngine, decisionDefinition.getDeploymentId(), decisionDefinition.getResourceName());
+
+        final DecisionDefinitionMetadata metadata = decisionMetadata.computeIfAbsent(
+                HashUtil.sha256(resource) + '#' + decisionDefinition.getKey(),
+                hash -> DecisionDefinitionMetadata.of(Dmn.readModelFromStream(new ByteArrayInputStream(resource)), decisionDefinition.getKey()));
+        decisionDefinitionMetadata.put(decisionDefinition.getId(), metadata);
+        return metadata;
+    }
+
+    /**
+     * Removes all cached metadata.
+     */
+    public static void clear() {
+        processMetadata.clear();
+        decisionMetadata.clear();
+        processDefinitionMetadata.clear();
+        decisionDefinitionMetadata.clear();
+    }
+
+    private static <T> Map<String, T> createDefinitionIdMap() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, T> eldest) {
+                return this.size() > MAX_DEFINITION_IDS;
+            }
+        });
+    }
+
+    private static byte[] getResource(final ProcessEngine processEngine, final String deploymentId, final String resourceName) {
+
+        try (final InputStream inputStream = processEngine.getRepositoryService().getResourceAsStream(deploymentId, resourceName)) {
+            return IOUtils.toByteArray(inputStream);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Unable to read resource " + resourceName + " of deployment " + deploymentId, ex);
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import org.camunda.bpm.engine.repository.DecisionDefinition;
 import org.camunda.bpm.engine.repository.ProcessDefinition;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -49,9 +50,9 @@ public class MethodCoverage implements AggregatedCoverage {
     /**
      * Map holding the coverages for each process definition (accessed by the process definition key).
      */
-    private Map<String, ProcessCoverage> processDefinitionKeyToProcessCoverage = new HashMap<>();
+    private Map<String, ProcessCoverage> processDefinitionKeyToProcessCoverage = new ConcurrentHashMap<>();
 
-    private Map<String, DecisionCoverage> decisionKeyToDecisionCoverage = new HashMap<>();
+    private Map<String, DecisionCoverage> decisionKeyToDecisionCoverage = new ConcurrentHashMap<>();
 
 
     public MethodCoverage(final String deploymentId, final String name) {
@@ -104,6 +105,34 @@ public class MethodCoverage implements AggregatedCoverage {
     }
 
 
+    /**
+     * Counts the start of a flow node or the take of a sequence flow.
+     *
+     * @param processDefinitionKey
+     * @param elementOrdinal
+     */
+    public void countExecutionStart(final String processDefinitionKey, final int elementOrdinal) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        if (processCoverage != null) {
+            processCoverage.countExecutionStart(elementOrdinal);
+        }
+    }
+
+    /**
+     * Counts the end of a flow node.
+     *
+     * @param processDefinitionKey
+     * @param elementOrdinal
+     */
+    public void countExecutionEnd(final String processDefinitionKey, final int elementOrdinal) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        if (processCoverage != null) {
+            processCoverage.countExecutionEnd(elementOrdinal);
+        }
+    }
+
     public void addCoveredDmnRules(final List<CoveredDmnRule> coveredDmnRules) {
 
         val decisionKey2coveredRuleMap = coveredDmnRules.stream()
@@ -116,6 +145,21 @@ public class MethodCoverage implements AggregatedCoverage {
         decisionCoverage.addCoveredDmnRule(coveredDmnRules);
     }
 
+    /**
+     * Adds a covered rule to the coverage of its decision. Rules of decisions not deployed
+     * by this test method are ignored.
+     *
+     * @param decisionKey
+     * @param ruleId
+     */
+    public void addCoveredRule(final String decisionKey, final String ruleId) {
+
+        final DecisionCoverage decisionCoverage = decisionKeyToDecisionCoverage.get(decisionKey);
+        if (decisionCoverage != null) {
+            decisionCoverage.addCoveredRule(ruleId);
+        }
+    }
+
     /**
      * Retrieves a set of covered flow nodes of the process definitions deployed by this test method.
      *
@@ -128,6 +172,18 @@ public class MethodCoverage implements AggregatedCoverage {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Retrieves the flow nodes of all process definitions that were started but never ended.
+     *
+     * @return
+     */
+    public List<CoveredFlowNode> getUnfinishedFlowNodes() {
+        return processDefinitionKeyToProcessCoverage.values().stream()
+                .map(ProcessCoverage::getUnfinishedFlowNodes)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toList());
+    }
+
     public List<CoveredSequenceFlow> getCoveredSequenceFlows() {
         return processDefinitionKeyToProcessCoverage.values().stream()
                 .map(ProcessCoverage::getCoveredSequenceFlows)
@@ -138,20 +194,157 @@ public class MethodCoverage implements AggregatedCoverage {
     public Integer getDecisionRuleCount(final String decisionKey) {
 
         final DecisionCoverage decisionCoverage = decisionKeyToDecisionCoverage.get(decisionKey);
-        return decisionCoverage.getDefinitionDecisionRules().size();
+        return decisionCoverage.getDefinitionMetadata().getRuleCount();
     }
 
+    /**
+     * Retrieves the number of flow nodes and sequence flows of the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return The element count or null if the test method did not deploy the process definition.
+     */
     public Integer getProcessElementCount(final String processDefinitionKey) {
 
         final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
-        return processCoverage.getDefinitionFlowNodes().size() + processCoverage.getDefinitionSequenceFlows().size();
+        return processCoverage != null ? processCoverage.getDefinitionMetadata().getElementCount() : null;
     }
 
     @Override
     public List<CoveredFlowNode> getCoveredFlowNodes(final String processDefinitionKey) {
 
         final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
-        return processCoverage.getCoveredFlowNodes();
+        return processCoverage != null ? processCoverage.getCoveredFlowNodes() : new ArrayList<>();
+    }
+
+    /**
+     * Retrieves a snapshot of the covered element ordinals of the given process definition.
+     * The ordinals refer to the {@link ProcessElementDictionary} of the process definition.
+     *
+     * @param processDefinitionKey
+     * @return The ordinals, empty if the test method did not deploy the process definition.
+     */
+    public BitSet getCoveredElementOrdinals(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getCoveredElementOrdinals() : new BitSet();
+    }
+
+    /**
+     * Retrieves the counted flow node starts and sequence flow takes of the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return The counts indexed by the element ordinal.
+     */
+    public long[] getExecutionStartCounts(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getExecutionStartCounts() : new long[0];
+    }
+
+    /**
+     * Retrieves the counted flow node ends of the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return The counts indexed by the element ordinal.
+     */
+    public long[] getExecutionEndCounts(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getExecutionEndCounts() : new long[0];
+    }
+
+    /**
+     * Appends a flow node start or sequence flow take to the path of a process instance.
+     *
+     * @param processDefinitionKey
+     * @param processInstanceId
+     * @param elementOrdinal
+     */
+    public void addPathElement(final String processDefinitionKey, final String processInstanceId, final int elementOrdinal) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        if (processCoverage != null) {
+            processCoverage.addPathElement(processInstanceId, elementOrdinal);
+        }
+    }
+
+    /**
+     * Completes the path of an ended process instance.
+     *
+     * @param processDefinitionKey
+     * @param processInstanceId
+     * @param completed
+     */
+    public void completePath(final String processDefinitionKey, final String processInstanceId, final boolean completed) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        if (processCoverage != null) {
+            processCoverage.completePath(processInstanceId, completed);
+        }
+    }
+
+    @Override
+    public Map<CoveredPath, Long> getCoveredPaths(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getCoveredPaths() : Collections.emptyMap();
+    }
+
+    /**
+     * Retrieves the IDs of the root process instances that executed the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return
+     */
+    public Set<String> getRootProcessInstanceIds(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getRootProcessInstanceIds() : Collections.emptySet();
+    }
+
+    /**
+     * Retrieves the traced executions of a root process instance in the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @param rootProcessInstanceId
+     * @return The process instance coverage or null if the instance did not execute the process definition.
+     */
+    public ProcessInstanceCoverage getProcessInstanceCoverage(final String processDefinitionKey, final String rootProcessInstanceId) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getProcessInstanceCoverage(rootProcessInstanceId) : null;
+    }
+
+    /**
+     * Retrieves a snapshot of the compressed execution trace of the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return The runs or null if executions are traced per activity instance or the test method did not deploy
+     * the process definition.
+     */
+    public List<CompressedTrace.Run> getCompressedTraceRuns(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getCompressedTraceRuns() : null;
+    }
+
+    /**
+     * Retrieves the element dictionary of the given process definition key.
+     *
+     * @param processDefinitionKey
+     * @return The dictionary or null if the test method did not deploy the process definition.
+     */
+    public ProcessElementDictionary getElementDictionary(final String processDefinitionKey) {
+
+        final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
+        return processCoverage != null ? processCoverage.getElementDictionary() : null;
+    }
+
+    @Override
+    public Map<String, Long> getRuleHitCounts(final String decisionKey) {
+
+        final DecisionCoverage decisionCoverage = decisionKeyToDecisionCoverage.get(decisionKey);
+        return decisionCoverage != null ? decisionCoverage.getRuleHitCounts() : Collections.emptyMap();
     }
 
     @Override
@@ -166,7 +359,7 @@ public class MethodCoverage implements AggregatedCoverage {
     public List<CoveredSequenceFlow> getCoveredSequenceFlows(final String processDefinitionKey) {
 
         final ProcessCoverage processCoverage = processDefinitionKeyToProcessCoverage.get(processDefinitionKey);
-        return processCoverage.getCoveredSequenceFlows();
+        return processCoverage != null ? processCoverage.getCoveredSequenceFlows() : new ArrayList<>();
     }
 
     @Override
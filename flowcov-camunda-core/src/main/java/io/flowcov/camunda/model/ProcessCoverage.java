@@ -16,19 +16,26 @@
 
 package io.flowcov.camunda.model;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.ToString;
 import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.impl.RepositoryServiceImpl;
+import org.camunda.bpm.engine.impl.core.model.CoreModelElement;
 import org.camunda.bpm.engine.repository.ProcessDefinition;
-import org.camunda.bpm.model.bpmn.BpmnModelInstance;
-import org.camunda.bpm.model.bpmn.instance.FlowNode;
-import org.camunda.bpm.model.bpmn.instance.SequenceFlow;
-import org.camunda.bpm.model.xml.instance.ModelElementInstance;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -48,24 +55,65 @@ public class ProcessCoverage {
     private ProcessDefinition processDefinition;
 
     /**
-     * Covered flow nodes.
+     * Key of the shard of elements recorded without a process instance.
      */
-    private List<CoveredFlowNode> coveredFlowNodes = new ArrayList<>();
+    private static final String UNKNOWN_PROCESS_INSTANCE = "";
 
     /**
-     * Flow nodes of the process definition.
+     * Traced executions partitioned by the root process instance ID. Process instances are recorded
+     * concurrently by the engine and job executor threads without sharing a queue.
      */
-    private Set<FlowNode> definitionFlowNodes;
+    @Getter(AccessLevel.NONE)
+    private Map<String, ProcessInstanceCoverage> processInstanceCoverages = new ConcurrentHashMap<>();
 
     /**
-     * Covered sequence flows.
+     * Executable flow nodes and sequence flows of the process definition, shared
+     * between all coverages of the same BPMN resource.
      */
-    private List<CoveredSequenceFlow> coveredSequenceFlows = new ArrayList<>();
+    private ProcessDefinitionMetadata definitionMetadata;
 
     /**
-     * Sequence flows of the process definition.
+     * Dictionary of the instrumented elements built while parsing the process definition.
      */
-    private Set<SequenceFlow> definitionSequenceFlows;
+    private ProcessElementDictionary elementDictionary;
+
+    /**
+     * Covered element ordinals according to the element dictionary.
+     */
+    @Getter(AccessLevel.NONE)
+    private ConcurrentBitSet coveredElements;
+
+    /**
+     * Execution counts of the elements indexed by their ordinal: flow node starts and sequence flow takes.
+     * Only maintained when counting executions or compressing the trace.
+     */
+    @Getter(AccessLevel.NONE)
+    private AtomicLongArray executionStartCounts;
+
+    /**
+     * Flow node end counts indexed by their ordinal. Only maintained when counting executions or compressing the trace.
+     */
+    @Getter(AccessLevel.NONE)
+    private AtomicLongArray executionEndCounts;
+
+    /**
+     * Compressed execution trace replacing the covered flow nodes and sequence flows. Null if executions
+     * are traced per activity instance.
+     */
+    @Getter(AccessLevel.NONE)
+    private CompressedTrace compressedTrace;
+
+    /**
+     * Paths of the running process instances, accessed by the process instance ID.
+     */
+    @Getter(AccessLevel.NONE)
+    private Map<String, CoveredPath.Builder> openPaths = new ConcurrentHashMap<>();
+
+    /**
+     * Distinct paths of the ended process instances with their occurrence counts.
+     */
+    @Getter(AccessLevel.NONE)
+    private Map<CoveredPath, LongAdder> endedPaths = new ConcurrentHashMap<>();
 
     /**
      * Constructor assembling a pristine process coverage object from the
@@ -76,15 +124,42 @@ public class ProcessCoverage {
      * @param processDefinition
      */
     public ProcessCoverage(final ProcessEngine processEngine, final ProcessDefinition processDefinition) {
+        this(processEngine, processDefinition, false);
+    }
+
+    /**
+     * Constructor assembling a pristine process coverage object, optionally recording the
+     * executions in a compressed trace.
+     *
+     * @param processEngine
+     * @param processDefinition
+     * @param compressTrace
+     */
+    public ProcessCoverage(final ProcessEngine processEngine, final ProcessDefinition processDefinition, final boolean compressTrace) {
 
         this.processDefinition = processDefinition;
 
-        final BpmnModelInstance modelInstance = processEngine.getRepositoryService().getBpmnModelInstance(
-                this.getProcessDefinitionId());
+        definitionMetadata = DefinitionMetadataCache.getProcessMetadata(processEngine, processDefinition);
+
+        // Definitions taken from the deployment are the deployed ones already
+        final CoreModelElement deployedProcessDefinition = processDefinition instanceof CoreModelElement
+                ? (CoreModelElement) processDefinition
+                : (CoreModelElement) ((RepositoryServiceImpl) processEngine.getRepositoryService())
+                .getDeployedProcessDefinition(this.getProcessDefinitionId());
+        elementDictionary = ProcessElementDictionary.get(deployedProcessDefinition);
+        if (elementDictionary == null) {
+            logger.log(Level.WARNING, "No element dictionary found for process definition {0}. Was it parsed with coverage enabled?",
+                    this.getProcessDefinitionId());
+            elementDictionary = new ProcessElementDictionary(this.getProcessDefinitionKey());
+        }
 
-        definitionFlowNodes = this.getExecutableFlowNodes(modelInstance.getModelElementsByType(FlowNode.class));
-        definitionSequenceFlows = this.getExecutableSequenceNodes(modelInstance.getModelElementsByType(SequenceFlow.class));
+        coveredElements = new ConcurrentBitSet(elementDictionary.size());
+        executionStartCounts = new AtomicLongArray(elementDictionary.size());
+        executionEndCounts = new AtomicLongArray(elementDictionary.size());
 
+        if (compressTrace) {
+            compressedTrace = new CompressedTrace();
+        }
     }
 
     public String getProcessDefinitionId() {
@@ -95,52 +170,240 @@ public class ProcessCoverage {
         return processDefinition.getKey();
     }
 
-    private Set<FlowNode> getExecutableFlowNodes(final Collection<FlowNode> flowNodes) {
-        return flowNodes.stream()
-                .filter(this::isExecutable)
-                .collect(Collectors.toSet());
+    /**
+     * Adds a covered element to the coverage.
+     *
+     * @param element
+     */
+    public void addCoveredElement(final CoveredElement element) {
+
+        if (compressedTrace != null && (element instanceof CoveredFlowNode || element instanceof CoveredSequenceFlow)) {
+
+            final int ordinal = this.getOrdinal(element);
+            this.appendToTrace(ordinal, element instanceof CoveredFlowNode ? CompressedTrace.START : CompressedTrace.TAKE,
+                    element.getExecutionStartCounter());
+            this.countExecutionStart(ordinal);
+
+        } else if (element instanceof CoveredFlowNode) {
+
+            this.getProcessInstanceCoverage(element).addCoveredFlowNode((CoveredFlowNode) element);
+            this.markCovered(element);
+
+        } else if (element instanceof CoveredSequenceFlow) {
+
+            this.getProcessInstanceCoverage(element).addCoveredSequenceFlow((CoveredSequenceFlow) element);
+            this.markCovered(element);
+
+        } else {
+            logger.log(Level.SEVERE,
+                    "Attempted adding unsupported element to process coverage. Process definition ID: {0} Element ID: {1}",
+                    new Object[]{element.getProcessDefinitionKey(), element.getElementId()});
+        }
+
     }
 
-    private boolean isExecutable(final ModelElementInstance node) {
+    /**
+     * Counts the start of a flow node or the take of a sequence flow without tracing the execution.
+     *
+     * @param elementOrdinal
+     */
+    public void countExecutionStart(final int elementOrdinal) {
+        if (elementOrdinal >= 0 && elementOrdinal < executionStartCounts.length()) {
+            executionStartCounts.incrementAndGet(elementOrdinal);
+            coveredElements.set(elementOrdinal);
+        }
+    }
 
-        if (node == null) {
-            return false;
+    /**
+     * Counts the end of a flow node without tracing the execution.
+     *
+     * @param elementOrdinal
+     */
+    public void countExecutionEnd(final int elementOrdinal) {
+        if (elementOrdinal >= 0 && elementOrdinal < executionEndCounts.length()) {
+            executionEndCounts.incrementAndGet(elementOrdinal);
         }
+    }
 
-        if (node instanceof org.camunda.bpm.model.bpmn.instance.Process) {
-            return ((org.camunda.bpm.model.bpmn.instance.Process) node).isExecutable();
+    /**
+     * Appends a flow node start or sequence flow take to the path of a process instance.
+     *
+     * @param processInstanceId
+     * @param elementOrdinal
+     */
+    public void addPathElement(final String processInstanceId, final int elementOrdinal) {
+        if (elementOrdinal >= 0) {
+            openPaths.computeIfAbsent(processInstanceId, id -> new CoveredPath.Builder()).append(elementOrdinal);
         }
+    }
 
-        return this.isExecutable(node.getParentElement());
+    /**
+     * Completes the path of an ended process instance. Only distinct paths are kept.
+     *
+     * @param processInstanceId
+     * @param completed         Whether the instance completed or was canceled.
+     */
+    public void completePath(final String processInstanceId, final boolean completed) {
+        final CoveredPath.Builder path = openPaths.remove(processInstanceId);
+        if (path != null) {
+            endedPaths.computeIfAbsent(path.build(completed), p -> new LongAdder()).increment();
+        }
     }
 
-    private Set<SequenceFlow> getExecutableSequenceNodes(final Collection<SequenceFlow> sequenceFlows) {
-        return sequenceFlows.stream()
-                .filter(s -> definitionFlowNodes.contains(s.getSource()))
-                .collect(Collectors.toSet());
+    /**
+     * Retrieves a snapshot of the distinct paths with their occurrence counts, including the
+     * partial paths of process instances still running.
+     *
+     * @return
+     */
+    public Map<CoveredPath, Long> getCoveredPaths() {
+
+        final Map<CoveredPath, Long> paths = new HashMap<>();
+        endedPaths.forEach((path, count) -> paths.put(path, count.sum()));
+        for (final CoveredPath.Builder path : openPaths.values()) {
+            paths.merge(path.build(false), 1L, Long::sum);
+        }
+        return paths;
     }
 
     /**
-     * Adds a covered element to the coverage.
+     * Retrieves a snapshot of the counted flow node starts and sequence flow takes, indexed by the element ordinal.
+     *
+     * @return
+     */
+    public long[] getExecutionStartCounts() {
+        return snapshot(executionStartCounts);
+    }
+
+    /**
+     * Retrieves a snapshot of the counted flow node ends, indexed by the element ordinal.
+     *
+     * @return
+     */
+    public long[] getExecutionEndCounts() {
+        return snapshot(executionEndCounts);
+    }
+
+    private static long[] snapshot(final AtomicLongArray counts) {
+        final long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Sets the element's bit in the covered element ordinals.
      *
      * @param element
      */
-    public void addCoveredElement(final CoveredElement element) {
+    private void markCovered(final CoveredElement element) {
+        coveredElements.set(this.getOrdinal(element));
+    }
 
-        if (element instanceof CoveredFlowNode) {
+    private int getOrdinal(final CoveredElement element) {
 
-            coveredFlowNodes.add((CoveredFlowNode) element);
+        final int ordinal = element.getElementOrdinal();
+        if (ordinal < 0) {
+            return elementDictionary.getOrdinal(element.getElementId());
+        }
+        return ordinal;
+    }
 
-        } else if (element instanceof CoveredSequenceFlow) {
+    private void appendToTrace(final int ordinal, final int kind, final Long counter) {
+        if (ordinal >= 0 && counter != null) {
+            compressedTrace.append(ordinal, kind, counter);
+        }
+    }
 
-            coveredSequenceFlows.add((CoveredSequenceFlow) element);
+    /**
+     * Retrieves a snapshot of the runs of the compressed execution trace.
+     *
+     * @return The runs or null if executions are traced per activity instance.
+     */
+    public List<CompressedTrace.Run> getCompressedTraceRuns() {
+        return compressedTrace != null ? compressedTrace.getRuns() : null;
+    }
 
-        } else {
-            logger.log(Level.SEVERE,
-                    "Attempted adding unsupported element to process coverage. Process definition ID: {0} Element ID: {1}",
-                    new Object[]{element.getProcessDefinitionKey(), element.getElementId()});
+    /**
+     * Retrieves a snapshot of the covered element ordinals.
+     *
+     * @return
+     */
+    public BitSet getCoveredElementOrdinals() {
+        return coveredElements.toBitSet();
+    }
+
+    /**
+     * Retrieves the shard of the root process instance the element was executed in, creating it if missing.
+     */
+    private ProcessInstanceCoverage getProcessInstanceCoverage(final CoveredElement element) {
+
+        final String rootProcessInstanceId = element.getRootProcessInstanceId() != null
+                ? element.getRootProcessInstanceId()
+                : UNKNOWN_PROCESS_INSTANCE;
+
+        final ProcessInstanceCoverage processInstanceCoverage = processInstanceCoverages.get(rootProcessInstanceId);
+        if (processInstanceCoverage != null) {
+            return processInstanceCoverage;
         }
+        return processInstanceCoverages.computeIfAbsent(rootProcessInstanceId, ProcessInstanceCoverage::new);
+    }
 
+    /**
+     * Retrieves the traced executions of a root process instance, including the instances it called.
+     *
+     * @param rootProcessInstanceId
+     * @return The process instance coverage or null if the instance did not execute this process definition.
+     */
+    public ProcessInstanceCoverage getProcessInstanceCoverage(final String rootProcessInstanceId) {
+        return processInstanceCoverages.get(rootProcessInstanceId);
+    }
+
+    /**
+     * Retrieves the IDs of the root process instances that executed this process definition.
+     *
+     * @return
+     */
+    public Set<String> getRootProcessInstanceIds() {
+        final Set<String> rootProcessInstanceIds = new HashSet<>(processInstanceCoverages.keySet());
+        rootProcessInstanceIds.remove(UNKNOWN_PROCESS_INSTANCE);
+        return rootProcessInstanceIds;
+    }
+
+    /**
+     * Retrieves a snapshot of the covered flow nodes of all process instances, merged in execution order.
+     *
+     * @return
+     */
+    public List<CoveredFlowNode> getCoveredFlowNodes() {
+        return this.mergeProcessInstanceCoverages(ProcessInstanceCoverage::getCoveredFlowNodes);
+    }
+
+    /**
+     * Retrieves a snapshot of the covered sequence flows of all process instances, merged in execution order.
+     *
+     * @return
+     */
+    public List<CoveredSequenceFlow> getCoveredSequenceFlows() {
+        return this.mergeProcessInstanceCoverages(ProcessInstanceCoverage::getCoveredSequenceFlows);
+    }
+
+    /**
+     * Merges the elements of the process instance shards by their execution start counter. A single shard
+     * is already in execution order.
+     */
+    private <T extends CoveredElement> List<T> mergeProcessInstanceCoverages(final Function<ProcessInstanceCoverage, List<T>> elements) {
+
+        final List<T> merged = new ArrayList<>();
+        for (final ProcessInstanceCoverage processInstanceCoverage : processInstanceCoverages.values()) {
+            merged.addAll(elements.apply(processInstanceCoverage));
+        }
+
+        if (processInstanceCoverages.size() > 1) {
+            merged.sort(Comparator.comparing(CoveredElement::getExecutionStartCounter, Comparator.nullsLast(Comparator.naturalOrder())));
+        }
+        return merged;
     }
 
     /**
@@ -152,12 +415,24 @@ public class ProcessCoverage {
     public void endCoveredElement(final CoveredElement element) {
 
         // Only flow nodes can be ended
-        if (element instanceof CoveredFlowNode) {
-            final CoveredFlowNode endedFlowNode = (CoveredFlowNode) element;
+        if (compressedTrace != null && element instanceof CoveredFlowNode) {
+
+            final int ordinal = this.getOrdinal(element);
+            this.appendToTrace(ordinal, CompressedTrace.END, ((CoveredFlowNode) element).getExecutionEndCoutner());
+            this.countExecutionEnd(ordinal);
 
-            coveredFlowNodes.stream()
-                    .filter(obj -> obj.getFlowNodeInstanceId().equals(endedFlowNode.getFlowNodeInstanceId()))
-                    .findFirst().get().setExecutionEndCoutner(endedFlowNode.getExecutionEndCoutner());
+        } else if (element instanceof CoveredFlowNode) {
+            final CoveredFlowNode endedFlowNode = (CoveredFlowNode) element;
+            final CoveredFlowNode startedFlowNode = this.getProcessInstanceCoverage(element)
+                    .endCoveredFlowNode(endedFlowNode.getFlowNodeInstanceId());
+
+            if (startedFlowNode != null) {
+                startedFlowNode.setExecutionEndCoutner(endedFlowNode.getExecutionEndCoutner());
+            } else {
+                logger.log(Level.WARNING,
+                        "Attempted ending flow node that was not started. Process definition ID: {0} Element ID: {1} Instance ID: {2}",
+                        new Object[]{element.getProcessDefinitionKey(), element.getElementId(), endedFlowNode.getFlowNodeInstanceId()});
+            }
         } else {
             logger.log(Level.SEVERE,
                     "Attempted ending unsupported element to process coverage. Process definition ID: {0} Element ID: {1}",
@@ -165,14 +440,39 @@ public class ProcessCoverage {
         }
     }
 
+    /**
+     * Retrieves the flow nodes that were started but never ended. Counted executions
+     * are reported once per flow node.
+     *
+     * @return
+     */
+    public List<CoveredFlowNode> getUnfinishedFlowNodes() {
+
+        final List<CoveredFlowNode> unfinishedFlowNodes = new ArrayList<>();
+        for (final ProcessInstanceCoverage processInstanceCoverage : processInstanceCoverages.values()) {
+            unfinishedFlowNodes.addAll(processInstanceCoverage.getUnfinishedFlowNodes());
+        }
+
+        for (int ordinal = 0; ordinal < executionStartCounts.length(); ordinal++) {
+            if (elementDictionary.isFlowNode(ordinal) && executionStartCounts.get(ordinal) > executionEndCounts.get(ordinal)) {
+                final CoveredFlowNode flowNode = new CoveredFlowNode(this.getProcessDefinitionKey(),
+                        elementDictionary.getElementId(ordinal), null, elementDictionary.getElementType(ordinal));
+                flowNode.setElementOrdinal(ordinal);
+                unfinishedFlowNodes.add(flowNode);
+            }
+        }
+
+        return unfinishedFlowNodes;
+    }
+
     public List<String> getCoveredFlowNodeIds() {
-        return coveredFlowNodes.stream()
+        return this.getCoveredFlowNodes().stream()
                 .map(CoveredFlowNode::getElementId)
                 .collect(Collectors.toList());
     }
 
     public List<String> getCoveredSequenceFlowIds() {
-        return coveredSequenceFlows.stream()
+        return this.getCoveredSequenceFlows().stream()
                 .map(CoveredSequenceFlow::getElementId)
                 .collect(Collectors.toList());
     }
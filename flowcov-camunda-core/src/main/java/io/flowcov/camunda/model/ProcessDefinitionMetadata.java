@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import lombok.Getter;
+import lombok.ToString;
+import org.camunda.bpm.model.bpmn.BpmnModelInstance;
+import org.camunda.bpm.model.bpmn.instance.FlowNode;
+import org.camunda.bpm.model.bpmn.instance.SequenceFlow;
+import org.camunda.bpm.model.xml.instance.ModelElementInstance;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable metadata of a BPMN resource: the IDs of the executable flow nodes and
+ * their outgoing sequence flows. Shared by all coverages of equal resources.
+ */
+@Getter
+@ToString
+public class ProcessDefinitionMetadata {
+
+    /**
+     * IDs of the flow nodes of executable processes.
+     */
+    private final Set<String> flowNodeIds;
+
+    /**
+     * IDs of the sequence flows starting at an executable flow node.
+     */
+    private final Set<String> sequenceFlowIds;
+
+    private ProcessDefinitionMetadata(final Set<String> flowNodeIds, final Set<String> sequenceFlowIds) {
+        this.flowNodeIds = Collections.unmodifiableSet(flowNodeIds);
+        this.sequenceFlowIds = Collections.unmodifiableSet(sequenceFlowIds);
+    }
+
+    /**
+     * Collects the metadata of a BPMN model.
+     *
+     * @param modelInstance
+     * @return
+     */
+    public static ProcessDefinitionMetadata of(final BpmnModelInstance modelInstance) {
+
+        final Set<String> flowNodeIds = new LinkedHashSet<>();
+        for (final FlowNode flowNode : modelInstance.getModelElementsByType(FlowNode.class)) {
+            if (isExecutable(flowNode)) {
+                flowNodeIds.add(flowNode.getId());
+            }
+        }
+
+        final Set<String> sequenceFlowIds = new LinkedHashSet<>();
+        for (final SequenceFlow sequenceFlow : modelInstance.getModelElementsByType(SequenceFlow.class)) {
+            if (sequenceFlow.getSource() != null && flowNodeIds.contains(sequenceFlow.getSource().getId())) {
+                sequenceFlowIds.add(sequenceFlow.getId());
+            }
+        }
+
+        return new ProcessDefinitionMetadata(flowNodeIds, sequenceFlowIds);
+    }
+
+    private static boolean isExecutable(final ModelElementInstance node) {
+
+        if (node == null) {
+            return false;
+        }
+
+        if (node instanceof org.camunda.bpm.model.bpmn.instance.Process) {
+            return ((org.camunda.bpm.model.bpmn.instance.Process) node).isExecutable();
+        }
+
+        return isExecutable(node.getParentElement());
+    }
+
+    /**
+     * Retrieves the number of executable flow nodes and sequence flows.
+     *
+     * @return
+     */
+    public int getElementCount() {
+        return flowNodeIds.size() + sequenceFlowIds.size();
+    }
+
+}
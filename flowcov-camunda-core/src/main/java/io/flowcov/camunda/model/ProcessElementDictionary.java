@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import org.camunda.bpm.engine.impl.core.model.CoreModelElement;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary assigning every instrumented flow node and sequence flow of a process definition
+ * a dense int ordinal. The dictionary is built once while the definition is parsed and attached
+ * to the parsed definition, so coverage can be recorded as bits instead of element objects.
+ */
+public class ProcessElementDictionary {
+
+    /**
+     * Name of the property holding the dictionary on the parsed process definition.
+     */
+    public static final String PROPERTY_NAME = "flowcov.elementDictionary";
+
+    /**
+     * The key of the process definition.
+     */
+    private final String processDefinitionKey;
+
+    /**
+     * Element IDs indexed by ordinal.
+     */
+    private final List<String> elementIds = new ArrayList<>();
+
+    /**
+     * Element types indexed by ordinal, null for sequence flows.
+     */
+    private final List<String> elementTypes = new ArrayList<>();
+
+    /**
+     * Map connecting the element ID to its ordinal.
+     */
+    private final Map<String, Integer> elementIdToOrdinal = new HashMap<>();
+
+    /**
+     * Ordinals of the flow nodes.
+     */
+    private final BitSet flowNodes = new BitSet();
+
+    public ProcessElementDictionary(final String processDefinitionKey) {
+        this.processDefinitionKey = processDefinitionKey;
+    }
+
+    /**
+     * Retrieves the dictionary attached to a parsed process definition.
+     *
+     * @param processDefinition
+     * @return The dictionary or null if the definition was not instrumented.
+     */
+    public static ProcessElementDictionary get(final CoreModelElement processDefinition) {
+        return (ProcessElementDictionary) processDefinition.getProperty(PROPERTY_NAME);
+    }
+
+    /**
+     * Retrieves the dictionary attached to a parsed process definition, attaching a new one if missing.
+     *
+     * @param processDefinition
+     * @param processDefinitionKey
+     * @return
+     */
+    public static ProcessElementDictionary getOrCreate(final CoreModelElement processDefinition, final String processDefinitionKey) {
+
+        ProcessElementDictionary dictionary = get(processDefinition);
+        if (dictionary == null) {
+            dictionary = new ProcessElementDictionary(processDefinitionKey);
+            processDefinition.setProperty(PROPERTY_NAME, dictionary);
+        }
+
+        return dictionary;
+    }
+
+    /**
+     * Assigns the next ordinal to a flow node. Registering an element twice returns the existing ordinal.
+     *
+     * @param flowNodeId
+     * @param type
+     * @return
+     */
+    public int registerFlowNode(final String flowNodeId, final String type) {
+        final int ordinal = this.register(flowNodeId, type);
+        flowNodes.set(ordinal);
+        return ordinal;
+    }
+
+    /**
+     * Assigns the next ordinal to a sequence flow. Registering an element twice returns the existing ordinal.
+     *
+     * @param sequenceFlowId
+     * @return
+     */
+    public int registerSequenceFlow(final String sequenceFlowId) {
+        return this.register(sequenceFlowId, null);
+    }
+
+    private int register(final String elementId, final String type) {
+
+        final Integer existing = elementIdToOrdinal.get(elementId);
+        if (existing != null) {
+            return existing;
+        }
+
+        final int ordinal = elementIds.size();
+        elementIds.add(elementId);
+        elementTypes.add(type);
+        elementIdToOrdinal.put(elementId, ordinal);
+        return ordinal;
+    }
+
+    /**
+     * Retrieves the ordinal of an element.
+     *
+     * @param elementId
+     * @return The ordinal or -1 if the element is unknown.
+     */
+    public int getOrdinal(final String elementId) {
+        final Integer ordinal = elementIdToOrdinal.get(elementId);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * Checks if the ordinals of the other dictionary refer to the same elements, e.g. for the same
+     * process definition parsed by another deployment.
+     *
+     * @param other
+     * @return
+     */
+    public boolean hasSameOrdinals(final ProcessElementDictionary other) {
+        return this == other || (other != null && elementIds.equals(other.elementIds) && flowNodes.equals(other.flowNodes));
+    }
+
+    public String getElementId(final int ordinal) {
+        return elementIds.get(ordinal);
+    }
+
+    public String getElementType(final int ordinal) {
+        return elementTypes.get(ordinal);
+    }
+
+    public boolean isFlowNode(final int ordinal) {
+        return flowNodes.get(ordinal);
+    }
+
+    /**
+     * Retrieves a copy of the flow node ordinals.
+     *
+     * @return
+     */
+    public BitSet getFlowNodeOrdinals() {
+        return (BitSet) flowNodes.clone();
+    }
+
+    /**
+     * Retrieves the ordinals of the sequence flows.
+     *
+     * @return
+     */
+    public BitSet getSequenceFlowOrdinals() {
+        final BitSet sequenceFlows = new BitSet(this.size());
+        sequenceFlows.set(0, this.size());
+        sequenceFlows.andNot(flowNodes);
+        return sequenceFlows;
+    }
+
+    public String getProcessDefinitionKey() {
+        return processDefinitionKey;
+    }
+
+    /**
+     * Retrieves the number of registered elements.
+     *
+     * @return
+     */
+    public int size() {
+        return elementIds.size();
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Traced executions of a single root process instance within a process coverage. Instances called by
+ * call activities are traced in the shard of their root process instance, so concurrent process instances
+ * are recorded without contending for the same queues.
+ */
+public class ProcessInstanceCoverage {
+
+    /**
+     * The ID of the root process instance.
+     */
+    @Getter
+    private final String rootProcessInstanceId;
+
+    /**
+     * Covered flow nodes in execution order. Appended concurrently by jobs of the same process instance.
+     */
+    private final Queue<CoveredFlowNode> coveredFlowNodes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Covered sequence flows in execution order.
+     */
+    private final Queue<CoveredSequenceFlow> coveredSequenceFlows = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Covered flow nodes that were started but not ended yet, accessed by their flow node instance ID.
+     */
+    private final Map<String, CoveredFlowNode> openFlowNodes = new ConcurrentHashMap<>();
+
+    public ProcessInstanceCoverage(final String rootProcessInstanceId) {
+        this.rootProcessInstanceId = rootProcessInstanceId;
+    }
+
+    /**
+     * Adds a started flow node.
+     *
+     * @param flowNode
+     */
+    public void addCoveredFlowNode(final CoveredFlowNode flowNode) {
+        coveredFlowNodes.add(flowNode);
+        openFlowNodes.put(flowNode.getFlowNodeInstanceId(), flowNode);
+    }
+
+    /**
+     * Adds a taken sequence flow.
+     *
+     * @param sequenceFlow
+     */
+    public void addCoveredSequenceFlow(final CoveredSequenceFlow sequenceFlow) {
+        coveredSequenceFlows.add(sequenceFlow);
+    }
+
+    /**
+     * Removes a flow node from the open flow nodes on its end.
+     *
+     * @param flowNodeInstanceId
+     * @return The started flow node or null if it was not started in this process instance.
+     */
+    public CoveredFlowNode endCoveredFlowNode(final String flowNodeInstanceId) {
+        return openFlowNodes.remove(flowNodeInstanceId);
+    }
+
+    /**
+     * Retrieves a snapshot of the covered flow nodes in execution order.
+     *
+     * @return
+     */
+    public List<CoveredFlowNode> getCoveredFlowNodes() {
+        return new ArrayList<>(coveredFlowNodes);
+    }
+
+    /**
+     * Retrieves a snapshot of the covered sequence flows in execution order.
+     *
+     * @return
+     */
+    public List<CoveredSequenceFlow> getCoveredSequenceFlows() {
+        return new ArrayList<>(coveredSequenceFlows);
+    }
+
+    /**
+     * Retrieves a snapshot of the flow nodes that were started but never ended.
+     *
+     * @return
+     */
+    public List<CoveredFlowNode> getUnfinishedFlowNodes() {
+        return new ArrayList<>(openFlowNodes.values());
+    }
+
+}
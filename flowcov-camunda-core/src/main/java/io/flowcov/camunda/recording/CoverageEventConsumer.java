@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.recording;
+
+import io.flowcov.camunda.model.ProcessElementDictionary;
+
+/**
+ * Consumer folding the events of a {@link CoverageEventRingBuffer} into the coverage model.
+ * Events are delivered on the consumer thread in publication order.
+ */
+@FunctionalInterface
+public interface CoverageEventConsumer {
+
+    /**
+     * Consumes a single coverage event.
+     *
+     * @param kind                  The event kind, one of the {@link CoverageEventRingBuffer} kind constants.
+     * @param dictionary            The element dictionary of the process definition.
+     * @param elementOrdinal        The ordinal of the element in the dictionary.
+     * @param instanceIdHash        The hash of the activity instance ID for indexing, 0 for sequence flows.
+     * @param activityInstanceId    The ID of the activity instance, null for sequence flows.
+     * @param rootProcessInstanceId The ID of the root process instance, null if unknown.
+     * @param testMethodName        The name of the test method running when the event was published.
+     * @param sequence              The sequence number of the event, starting at 1.
+     */
+    void consume(byte kind, ProcessElementDictionary dictionary, int elementOrdinal, long instanceIdHash,
+                 String activityInstanceId, String rootProcessInstanceId, String testMethodName, long sequence);
+
+}
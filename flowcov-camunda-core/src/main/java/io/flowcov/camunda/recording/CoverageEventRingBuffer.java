@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.recording;
+
+import io.flowcov.camunda.model.ProcessElementDictionary;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Preallocated multi-producer ring buffer decoupling coverage recording from the engine threads.
+ * <p>
+ * Producers claim a slot with a single atomic increment and write a fixed-size event into parallel
+ * arrays. A background consumer thread folds the events into the coverage model in sequence order.
+ * The claimed slot number doubles as the execution counter of the event. If the buffer is full,
+ * producers wait for the consumer (back-pressure). The consumer thread is started on demand and
+ * stops after being idle for a while.
+ */
+public class CoverageEventRingBuffer {
+
+    private static final Logger logger = Logger.getLogger(CoverageEventRingBuffer.class.getCanonicalName());
+
+    public static final byte FLOW_NODE_START = 1;
+    public static final byte FLOW_NODE_END = 2;
+    public static final byte SEQUENCE_FLOW_TAKE = 3;
+
+    /**
+     * Default number of slots.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Time the consumer parks while no events are available.
+     */
+    private static final long IDLE_PARK_NANOS = 50_000L;
+
+    /**
+     * Number of empty polls after which the consumer thread stops (about one second).
+     */
+    private static final int MAX_IDLE_POLLS = 20_000;
+
+    private final int capacity;
+    private final int mask;
+    private final int indexShift;
+
+    private final byte[] kinds;
+    private final int[] elementOrdinals;
+    private final long[] instanceIdHashes;
+    private final ProcessElementDictionary[] dictionaries;
+    private final String[] activityInstanceIds;
+    private final String[] rootProcessInstanceIds;
+    private final String[] testMethodNames;
+
+    /**
+     * The round (sequence / capacity) in which each slot was published last.
+     */
+    private final AtomicIntegerArray availableRounds;
+
+    /**
+     * The last claimed sequence.
+     */
+    private final AtomicLong claimedSequence = new AtomicLong(-1);
+
+    /**
+     * The last consumed sequence.
+     */
+    private final AtomicLong consumedSequence = new AtomicLong(-1);
+
+    private final AtomicBoolean consumerRunning = new AtomicBoolean();
+
+    private final CoverageEventConsumer consumer;
+
+    private volatile Thread consumerThread;
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity The number of slots. Rounded up to the next power of two.
+     * @param consumer The consumer folding the events into the coverage model.
+     */
+    public CoverageEventRingBuffer(final int capacity, final CoverageEventConsumer consumer) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be positive: " + capacity);
+        }
+
+        this.capacity = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = this.capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(this.capacity);
+        this.consumer = consumer;
+
+        kinds = new byte[this.capacity];
+        elementOrdinals = new int[this.capacity];
+        instanceIdHashes = new long[this.capacity];
+        dictionaries = new ProcessElementDictionary[this.capacity];
+        activityInstanceIds = new String[this.capacity];
+        rootProcessInstanceIds = new String[this.capacity];
+        testMethodNames = new String[this.capacity];
+
+        availableRounds = new AtomicIntegerArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            availableRounds.set(i, -1);
+        }
+    }
+
+    /**
+     * Publishes an event. Waits while the buffer is full.
+     *
+     * @param kind
+     * @param dictionary
+     * @param elementOrdinal
+     * @param instanceIdHash
+     * @param activityInstanceId    The ID of the activity instance, null for sequence flows.
+     * @param rootProcessInstanceId
+     * @param testMethodName        The test method the event is recorded for.
+     * @return The sequence number of the event, starting at 1.
+     */
+    public long publish(final byte kind, final ProcessElementDictionary dictionary, final int elementOrdinal, final long instanceIdHash,
+                        final String activityInstanceId, final String rootProcessInstanceId, final String testMethodName) {
+
+        final long sequence = claimedSequence.incrementAndGet();
+
+        while (sequence - capacity > consumedSequence.get()) {
+            this.ensureConsumerRunning();
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+
+        final int index = (int) sequence & mask;
+        kinds[index] = kind;
+        elementOrdinals[index] = elementOrdinal;
+        instanceIdHashes[index] = instanceIdHash;
+        dictionaries[index] = dictionary;
+        activityInstanceIds[index] = activityInstanceId;
+        rootProcessInstanceIds[index] = rootProcessInstanceId;
+        testMethodNames[index] = testMethodName;
+        // Not a lazy write: the running flag must not be read before the event is visible, or a consumer
+        // stopping concurrently misses the event while this producer still sees it running
+        availableRounds.set(index, (int) (sequence >>> indexShift));
+
+        this.ensureConsumerRunning();
+        return sequence + 1;
+    }
+
+    /**
+     * Blocks until all events published so far have been consumed.
+     */
+    public void flush() {
+
+        final long target = claimedSequence.get();
+        while (consumedSequence.get() < target) {
+            this.ensureConsumerRunning();
+            LockSupport.unpark(consumerThread);
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Retrieves the number of slots.
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void ensureConsumerRunning() {
+        if (!consumerRunning.get() && consumerRunning.compareAndSet(false, true)) {
+            final Thread thread = new Thread(this::consume, "flowcov-coverage-consumer");
+            thread.setDaemon(true);
+            consumerThread = thread;
+            thread.start();
+        }
+    }
+
+    private void consume() {
+
+        int idlePolls = 0;
+
+        while (true) {
+
+            final long sequence = consumedSequence.get() + 1;
+            final int index = (int) sequence & mask;
+
+            if (availableRounds.get(index) == (int) (sequence >>> indexShift)) {
+
+                final ProcessElementDictionary dictionary = dictionaries[index];
+                final String activityInstanceId = activityInstanceIds[index];
+                final String rootProcessInstanceId = rootProcessInstanceIds[index];
+                final String testMethodName = testMethodNames[index];
+                dictionaries[index] = null;
+                activityInstanceIds[index] = null;
+                rootProcessInstanceIds[index] = null;
+                testMethodNames[index] = null;
+
+                try {
+                    consumer.consume(kinds[index], dictionary, elementOrdinals[index], instanceIdHashes[index],
+                            activityInstanceId, rootProcessInstanceId, testMethodName, sequence + 1);
+                } catch (final RuntimeException ex) {
+                    logger.log(Level.SEVERE, "Unable to record coverage event " + (sequence + 1), ex);
+                }
+
+                consumedSequence.set(sequence);
+                idlePolls = 0;
+
+            } else if (++idlePolls < MAX_IDLE_POLLS) {
+
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+
+            } else {
+
+                consumerRunning.set(false);
+
+                // A producer may have published after the last poll but before the flag was reset.
+                if (availableRounds.get(index) != (int) (sequence >>> indexShift) || !consumerRunning.compareAndSet(false, true)) {
+                    return;
+                }
+                idlePolls = 0;
+            }
+        }
+    }
+
+    /**
+     * Hashes an activity instance ID into 64 bits (FNV-1a) without allocating.
+     *
+     * @param instanceId
+     * @return
+     */
+    public static long hash(final String instanceId) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < instanceId.length(); i++) {
+            hash ^= instanceId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
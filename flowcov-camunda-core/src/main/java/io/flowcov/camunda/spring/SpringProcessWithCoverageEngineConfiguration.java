@@ -17,8 +17,14 @@
 package io.flowcov.camunda.spring;
 
 import io.flowcov.camunda.junit.ProcessCoverageConfigurator;
+import io.flowcov.camunda.listeners.HistoryPersistenceMode;
+import io.flowcov.camunda.listeners.InstrumentationLevel;
+import org.camunda.bpm.engine.impl.history.event.HistoryEvent;
 import org.camunda.bpm.engine.spring.SpringProcessEngineConfiguration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Spring process engine configuration additionally configuring
  * flow node, sequence flow and compensation listeners for process coverage
@@ -26,9 +32,50 @@ import org.camunda.bpm.engine.spring.SpringProcessEngineConfiguration;
  */
 public class SpringProcessWithCoverageEngineConfiguration extends SpringProcessEngineConfiguration {
 
+    /**
+     * Which history events are written to the database.
+     */
+    private HistoryPersistenceMode historyPersistenceMode = HistoryPersistenceMode.ALL;
+
+    /**
+     * Types of the history events written in {@link HistoryPersistenceMode#SELECTED} mode.
+     */
+    private List<Class<? extends HistoryEvent>> persistedHistoryEventTypes = new ArrayList<>();
+
+    /**
+     * Which flow node and sequence flow events are recorded.
+     */
+    private InstrumentationLevel instrumentationLevel = InstrumentationLevel.FULL;
+
     @Override
     public void init() {
-        ProcessCoverageConfigurator.initializeProcessCoverageExtensions(this);
+        ProcessCoverageConfigurator.initializeProcessCoverageExtensions(this, historyPersistenceMode, persistedHistoryEventTypes,
+                instrumentationLevel);
         super.init();
     }
+
+    public HistoryPersistenceMode getHistoryPersistenceMode() {
+        return historyPersistenceMode;
+    }
+
+    public void setHistoryPersistenceMode(final HistoryPersistenceMode historyPersistenceMode) {
+        this.historyPersistenceMode = historyPersistenceMode;
+    }
+
+    public List<Class<? extends HistoryEvent>> getPersistedHistoryEventTypes() {
+        return persistedHistoryEventTypes;
+    }
+
+    public void setPersistedHistoryEventTypes(final List<Class<? extends HistoryEvent>> persistedHistoryEventTypes) {
+        this.persistedHistoryEventTypes = persistedHistoryEventTypes;
+    }
+
+    public InstrumentationLevel getInstrumentationLevel() {
+        return instrumentationLevel;
+    }
+
+    public void setInstrumentationLevel(final InstrumentationLevel instrumentationLevel) {
+        this.instrumentationLevel = instrumentationLevel;
+    }
+
 }
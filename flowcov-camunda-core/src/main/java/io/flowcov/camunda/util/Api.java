@@ -16,12 +16,15 @@
 
 package io.flowcov.camunda.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public class Api {
@@ -45,17 +48,21 @@ public class Api {
     private String signature;
 
     // maps signatures to a "supported" Boolean, true means supported.
-    // false and null means not supported, but null means that a warning
-    // was already logged, too. We don't want to warn a thousand times.
-    private static Map<String, Boolean> support = new HashMap<String, Boolean>();
+    // Resolved once per signature, safe to read from any thread.
+    private static final Map<String, Boolean> support = new ConcurrentHashMap<String, Boolean>();
+
+    // signatures a warning was already logged for. We don't want to warn a thousand times.
+    private static final Set<String> warned = ConcurrentHashMap.newKeySet();
+
+    // maps method signatures to their resolved method handles
+    private static final Map<String, MethodHandle> methodHandles = new ConcurrentHashMap<String, MethodHandle>();
 
     private Api(String className, String memberName, Class<?>... parameterTypes) {
         this.className = className;
         this.memberName = memberName;
         this.parameterTypes = parameterTypes;
         this.signature = signature();
-        if (!support.containsKey(signature))
-            support.put(signature, supported());
+        support.computeIfAbsent(signature, s -> supported());
     }
 
     public static Api feature(String className) {
@@ -85,35 +92,68 @@ public class Api {
     }
 
     public boolean warn(String message) {
-        Boolean supported = support.get(signature);
-        if (supported != null && !supported) {
-            support.put(signature, null);
+        if (!isSupported() && warned.add(signature)) {
             log.warning(message);
         }
         return isSupported();
     }
 
     public boolean isSupported() {
-        Boolean s = support.get(signature);
-        return s != null && s;
+        return Boolean.TRUE.equals(support.get(signature));
+    }
+
+    /**
+     * Retrieves the method handle of the method, resolved once per signature.
+     *
+     * @return The method handle or null if the method is not supported.
+     */
+    public MethodHandle methodHandle() {
+        MethodHandle handle = methodHandles.get(signature);
+        if (handle == null) {
+            final Method method = method();
+            if (method == null) {
+                return null;
+            }
+            try {
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+            methodHandles.putIfAbsent(signature, handle);
+        }
+        return handle;
     }
 
     public Object invoke(Object obj, Object... args) {
+        final MethodHandle handle = methodHandle();
+        if (handle == null) {
+            throw new UnsupportedOperationException(message());
+        }
+
+        // Handles of instance methods take the receiver as first argument
+        final Object[] arguments;
+        if (handle.type().parameterCount() == args.length) {
+            arguments = args;
+        } else {
+            arguments = new Object[args.length + 1];
+            arguments[0] = obj;
+            System.arraycopy(args, 0, arguments, 1, args.length);
+        }
         try {
-            return method().invoke(obj, args);
-        } catch (Exception e) {
+            return handle.invokeWithArguments(arguments);
+        } catch (Throwable e) {
             throw new RuntimeException(e);
         }
     }
 
     private String message() {
-        StringBuffer buffer = new StringBuffer("Usage of API '").append(signature)
+        StringBuilder buffer = new StringBuilder("Usage of API '").append(signature)
                 .append("' requested, but not supported by the classes found in classpath.");
         return buffer.toString();
     }
 
     private String signature() {
-        StringBuffer buffer = new StringBuffer(className);
+        StringBuilder buffer = new StringBuilder(className);
         if (memberName != null) {
             buffer.append(".").append(memberName);
             buffer.append("(");
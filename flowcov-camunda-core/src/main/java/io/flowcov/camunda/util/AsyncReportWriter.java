@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes reports on a dedicated thread, so test classes do not wait for serialization and
+ * disk I/O. Snapshots are queued in a bounded queue; submitting blocks while the queue is
+ * full. All queued reports are written before the JVM shuts down.
+ */
+public class AsyncReportWriter {
+
+    private static final Logger logger = Logger.getLogger(AsyncReportWriter.class.getCanonicalName());
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    /**
+     * Maximum time the shutdown hook waits for the queued reports, so a stuck write cannot block the JVM exit.
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static AsyncReportWriter instance;
+
+    private final BlockingQueue<ReportSnapshot> queue;
+
+    /**
+     * Number of submitted and written (or failed) reports, guarded by this.
+     */
+    private long submitted;
+
+    private long completed;
+
+    private AsyncReportWriter(final int queueCapacity) {
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        final Thread writerThread = new Thread(this::run, "flowcov-report-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> this.drain(DRAIN_TIMEOUT_MILLIS), "flowcov-report-writer-drain"));
+    }
+
+    /**
+     * Retrieves the JVM-wide writer. The queue capacity of the first call is used.
+     *
+     * @param queueCapacity
+     * @return
+     */
+    public static synchronized AsyncReportWriter getInstance(final int queueCapacity) {
+        if (instance == null) {
+            instance = new AsyncReportWriter(queueCapacity);
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a report, waiting while the queue is full.
+     *
+     * @param snapshot
+     */
+    public void submit(final ReportSnapshot snapshot) {
+
+        synchronized (this) {
+            submitted++;
+        }
+
+        try {
+            queue.put(snapshot);
+        } catch (final InterruptedException ex) {
+            // Don't lose the report, write it on the caller thread instead
+            Thread.currentThread().interrupt();
+            this.write(snapshot);
+        }
+    }
+
+    /**
+     * Waits until all submitted reports are written or the timeout elapsed.
+     *
+     * @param timeoutMillis
+     * @return True if all submitted reports are written.
+     */
+    public synchronized boolean drain(final long timeoutMillis) {
+
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean interrupted = false;
+        long remaining = timeoutMillis;
+        while (completed < submitted && remaining > 0) {
+            try {
+                this.wait(remaining);
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (completed < submitted) {
+            logger.log(Level.WARNING, "Gave up waiting for {0} report(s) after {1} ms.",
+                    new Object[]{submitted - completed, timeoutMillis});
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                this.write(queue.take());
+            } catch (final InterruptedException ex) {
+                logger.log(Level.WARNING, "Report writer interrupted, writing {0} queued report(s) before stopping.", queue.size());
+                ReportSnapshot snapshot;
+                while ((snapshot = queue.poll()) != null) {
+                    this.write(snapshot);
+                }
+                return;
+            }
+        }
+    }
+
+    private void write(final ReportSnapshot snapshot) {
+        try {
+            CoverageReportUtil.writeReport(snapshot);
+        } catch (final Throwable ex) {
+            // Keep the writer thread alive, otherwise submit would block and drain wait for good
+            logger.log(Level.SEVERE, "Unable to write report " + snapshot.getReportPath(), ex);
+        } finally {
+            synchronized (this) {
+                completed++;
+                this.notifyAll();
+            }
+        }
+    }
+
+}
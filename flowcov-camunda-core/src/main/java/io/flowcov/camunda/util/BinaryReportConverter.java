@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts binary coverage reports into the JSON reports expected by FlowCov.
+ */
+public class BinaryReportConverter {
+
+    private BinaryReportConverter() {
+    }
+
+    /**
+     * Converts a binary report into a JSON report.
+     *
+     * @param binaryReportPath
+     * @param jsonReportPath
+     * @param prettyPrint      Whether to indent the JSON output.
+     * @throws IOException
+     */
+    public static void toJson(final Path binaryReportPath, final Path jsonReportPath, final boolean prettyPrint) throws IOException {
+        toJson(binaryReportPath, jsonReportPath, prettyPrint, null);
+    }
+
+    /**
+     * Converts a binary report into a JSON report, embedding the model XML referenced from the blob store.
+     *
+     * @param binaryReportPath
+     * @param jsonReportPath
+     * @param prettyPrint      Whether to indent the JSON output.
+     * @param blobStore        Store to resolve model XML references from, null to keep the references.
+     * @throws IOException
+     */
+    public static void toJson(final Path binaryReportPath, final Path jsonReportPath, final boolean prettyPrint,
+                              final ModelBlobStore blobStore) throws IOException {
+
+        try (val reader = new BinaryReportReader(binaryReportPath)) {
+            val build = reader.read();
+            if (blobStore != null) {
+                blobStore.resolve(build);
+            }
+            FlowCovReporter.generateReport(jsonReportPath.toString(), build, prettyPrint);
+        }
+    }
+
+    /**
+     * Converts a binary report given as first argument into the JSON report given as second argument.
+     * If the second argument is omitted, the JSON report is written next to the binary report.
+     * Model XML references are resolved from the {@code models} directory of the report root if present.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryReportConverter <binary report> [<json report>]");
+            System.exit(1);
+        }
+
+        final Path binaryReportPath = Paths.get(args[0]);
+        final Path jsonReportPath = args.length > 1
+                ? Paths.get(args[1])
+                : binaryReportPath.resolveSibling(ReportFormat.JSON.getFileName());
+
+        final Path blobDirectory = binaryReportPath.toAbsolutePath().getParent().resolveSibling("models");
+
+        toJson(binaryReportPath, jsonReportPath, false,
+                Files.isDirectory(blobDirectory) ? new ModelBlobStore(blobDirectory) : null);
+    }
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import io.flowcov.camunda.api.Build;
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.bpmn.BpmnTestClass;
+import io.flowcov.camunda.api.bpmn.BpmnTestMethod;
+import io.flowcov.camunda.api.bpmn.ExecutionPath;
+import io.flowcov.camunda.api.bpmn.FlowNode;
+import io.flowcov.camunda.api.bpmn.SequenceFlow;
+import io.flowcov.camunda.api.bpmn.TraceEvent;
+import io.flowcov.camunda.api.bpmn.TraceRun;
+import io.flowcov.camunda.api.bpmn.TraceStep;
+import io.flowcov.camunda.api.dmn.DmnModel;
+import io.flowcov.camunda.api.dmn.DmnTestClass;
+import io.flowcov.camunda.api.dmn.DmnTestMethod;
+import io.flowcov.camunda.api.dmn.Rule;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads coverage reports written by {@link BinaryReportWriter}.
+ */
+public class BinaryReportReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+
+    /**
+     * Format version of the report. Version 1 lacks the model XML references,
+     * versions before 3 lack the rule hit counts, versions before 4 the element execution counts
+     * versions before 5 the compressed traces and versions before 6 the execution paths.
+     */
+    private final long version;
+
+    /**
+     * Strings of the record currently being read.
+     */
+    private String[] strings;
+
+    /**
+     * Opens a binary report and checks its header.
+     *
+     * @param reportPath
+     * @throws IOException Thrown if the file is not a supported binary report.
+     */
+    public BinaryReportReader(final Path reportPath) throws IOException {
+
+        in = new BufferedInputStream(Files.newInputStream(reportPath), BUFFER_SIZE);
+
+        final byte[] magic = new byte[BinaryReportWriter.MAGIC.length];
+        this.readFully(magic);
+        if (!Arrays.equals(magic, BinaryReportWriter.MAGIC)) {
+            in.close();
+            throw new IOException(reportPath + " is not a binary FlowCov report");
+        }
+
+        version = this.readVarLong();
+        if (version < 1 || version > BinaryReportWriter.VERSION) {
+            in.close();
+            throw new IOException("Unsupported binary FlowCov report version " + version + " in " + reportPath);
+        }
+    }
+
+    /**
+     * Reads all remaining models of the report.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Build read() throws IOException {
+
+        final Build build = new Build();
+
+        int recordType;
+        while ((recordType = this.readByte()) != BinaryReportWriter.RECORD_END) {
+
+            this.readStringTable();
+            // Body length, only needed to skip records
+            this.readVarLong();
+
+            if (recordType == BinaryReportWriter.RECORD_BPMN_MODEL) {
+                build.getBpmnModels().add(this.readBpmnModel());
+            } else if (recordType == BinaryReportWriter.RECORD_DMN_MODEL) {
+                build.getDmnModels().add(this.readDmnModel());
+            } else {
+                throw new IOException("Unknown record type " + recordType);
+            }
+        }
+
+        return build;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private BpmnModel readBpmnModel() throws IOException {
+
+        final BpmnModel model = BpmnModel.builder()
+                .bpmnXml(this.readString())
+                .bpmnXmlRef(version >= 2 ? this.readString() : null)
+                .name(this.readString())
+                .version(this.readString())
+                .processDefinitionKey(this.readString())
+                .totalNodeCount((int) this.readSigned())
+                .hash((int) this.readSigned())
+                .build();
+
+        final int testClassCount = this.readCount();
+        for (int c = 0; c < testClassCount; c++) {
+            final BpmnTestClass testClass = BpmnTestClass.builder()
+                    .name(this.readString())
+                    .build();
+
+            final int testMethodCount = this.readCount();
+            for (int m = 0; m < testMethodCount; m++) {
+                final String name = this.readString();
+
+                long previousCounter = 0;
+                final int flowNodeCount = this.readCount();
+                final List<FlowNode> flowNodes = new ArrayList<>(flowNodeCount);
+                for (int i = 0; i < flowNodeCount; i++) {
+                    final String key = this.readString();
+                    final String type = this.readString();
+                    final Long start = this.readNullableDelta(previousCounter);
+                    final Long end = this.readNullableDelta(start != null ? start : previousCounter);
+                    final Long startCount = version >= 4 ? this.readNullableDelta(0) : null;
+                    final Long endCount = version >= 4 ? this.readNullableDelta(0) : null;
+                    if (start != null) {
+                        previousCounter = start;
+                    }
+                    flowNodes.add(FlowNode.builder()
+                            .key(key)
+                            .type(type)
+                            .executionStartCounter(start)
+                            .executionEndCounter(end)
+                            .startCount(startCount)
+                            .endCount(endCount)
+                            .build());
+                }
+
+                previousCounter = 0;
+                final int sequenceFlowCount = this.readCount();
+                final List<SequenceFlow> sequenceFlows = new ArrayList<>(sequenceFlowCount);
+                for (int i = 0; i < sequenceFlowCount; i++) {
+                    final String key = this.readString();
+                    final String instanceId = this.readString();
+                    previousCounter += this.readSigned();
+                    sequenceFlows.add(SequenceFlow.builder()
+                            .key(key)
+                            .instanceId(instanceId)
+                            .executionStartCounter(previousCounter)
+                            .takeCount(version >= 4 ? this.readNullableDelta(0) : null)
+                            .build());
+                }
+
+                // Count plus one, zero if the method has no compressed trace
+                List<TraceRun> traceRuns = null;
+                final int traceRunCount = version >= 5 ? this.readCount() - 1 : -1;
+                if (traceRunCount >= 0) {
+                    previousCounter = 0;
+                    traceRuns = new ArrayList<>(traceRunCount);
+                    for (int i = 0; i < traceRunCount; i++) {
+                        previousCounter += this.readSigned();
+                        final long stride = this.readSigned();
+                        final int repeat = this.readCount();
+
+                        final int stepCount = this.readCount();
+                        final List<TraceStep> steps = new ArrayList<>(stepCount);
+                        for (int j = 0; j < stepCount; j++) {
+                            steps.add(TraceStep.builder()
+                                    .key(this.readString())
+                                    .event(TraceEvent.values()[this.readCount()])
+                                    .offset(this.readSigned())
+                                    .build());
+                        }
+
+                        traceRuns.add(TraceRun.builder()
+                                .executionCounter(previousCounter)
+                                .stride(stride)
+                                .repeat(repeat)
+                                .steps(steps)
+                                .build());
+                    }
+                }
+
+                testClass.getTestMethods().add(BpmnTestMethod.builder()
+                        .name(name)
+                        .flowNodes(flowNodes)
+                        .sequenceFlows(sequenceFlows)
+                        .traceRuns(traceRuns)
+                        .paths(version >= 6 ? this.readPaths() : null)
+                        .build());
+            }
+
+            if (version >= 6) {
+                testClass.setPaths(this.readPaths());
+            }
+
+            model.getTestClasses().add(testClass);
+        }
+
+        return model;
+    }
+
+    /**
+     * Reads the paths preceded by their count plus one, zero if no paths were recorded.
+     */
+    private List<ExecutionPath> readPaths() throws IOException {
+
+        final int pathCount = this.readCount() - 1;
+        if (pathCount < 0) {
+            return null;
+        }
+
+        final List<ExecutionPath> paths = new ArrayList<>(pathCount);
+        for (int i = 0; i < pathCount; i++) {
+            final String fingerprint = this.readString();
+            final boolean completed = this.readCount() != 0;
+            final long count = this.readVarLong();
+
+            final int elementCount = this.readCount();
+            final List<String> elements = new ArrayList<>(elementCount);
+            for (int j = 0; j < elementCount; j++) {
+                elements.add(this.readString());
+            }
+
+            paths.add(ExecutionPath.builder()
+                    .fingerprint(fingerprint)
+                    .completed(completed)
+                    .count(count)
+                    .elements(elements)
+                    .build());
+        }
+        return paths;
+    }
+
+    private DmnModel readDmnModel() throws IOException {
+
+        final DmnModel model = DmnModel.builder()
+                .dmnXml(this.readString())
+                .dmnXmlRef(version >= 2 ? this.readString() : null)
+                .name(this.readString())
+                .decisionKey(this.readString())
+                .version(this.readString())
+                .ruleCount((int) this.readSigned())
+                .hash((int) this.readSigned())
+                .build();
+
+        final int testClassCount = this.readCount();
+        for (int c = 0; c < testClassCount; c++) {
+            final String name = this.readString();
+            final String executionEndTime = this.readString();
+            final DmnTestClass testClass = DmnTestClass.builder()
+                    .name(name)
+                    .executionEndTime(executionEndTime != null
+                            ? LocalDateTime.parse(executionEndTime, DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+                            : null)
+                    .build();
+
+            final int testMethodCount = this.readCount();
+            for (int m = 0; m < testMethodCount; m++) {
+                final String methodName = this.readString();
+
+                final int ruleCount = this.readCount();
+                final List<Rule> rules = new ArrayList<>(ruleCount);
+                for (int i = 0; i < ruleCount; i++) {
+                    rules.add(Rule.builder()
+                            .key(this.readString())
+                            .timestamp(this.readSigned())
+                            .hitCount(version >= 3 ? this.readVarLong() : 0)
+                            .build());
+                }
+
+                testClass.getTestMethods().add(DmnTestMethod.builder()
+                        .name(methodName)
+                        .rules(rules)
+                        .build());
+            }
+
+            if (version >= 3) {
+                final int ruleHitCountCount = this.readCount();
+                for (int i = 0; i < ruleHitCountCount; i++) {
+                    testClass.getRuleHitCounts().put(this.readString(), this.readVarLong());
+                }
+            }
+
+            model.getTestClasses().add(testClass);
+        }
+
+        return model;
+    }
+
+    private void readStringTable() throws IOException {
+        strings = new String[this.readCount()];
+        for (int i = 0; i < strings.length; i++) {
+            final byte[] bytes = new byte[this.readCount()];
+            this.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private String readString() throws IOException {
+        final int reference = this.readCount();
+        if (reference == 0) {
+            return null;
+        }
+        if (reference > strings.length) {
+            throw new IOException("String reference " + reference + " out of range");
+        }
+        return strings[reference - 1];
+    }
+
+    private int readCount() throws IOException {
+        final long value = this.readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Invalid length " + value);
+        }
+        return (int) value;
+    }
+
+    private long readSigned() throws IOException {
+        final long value = this.readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private Long readNullableDelta(final long base) throws IOException {
+        final long value = this.readVarLong();
+        if (value == 0) {
+            return null;
+        }
+        final long delta = value - 1;
+        return base + ((delta >>> 1) ^ -(delta & 1));
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final int b = this.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int readByte() throws IOException {
+        final int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of binary FlowCov report");
+        }
+        return b;
+    }
+
+    private void readFully(final byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            final int read = in.read(bytes, offset, bytes.length - offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of binary FlowCov report");
+            }
+            offset += read;
+        }
+    }
+
+}
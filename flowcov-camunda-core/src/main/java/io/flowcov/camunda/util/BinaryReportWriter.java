@@ -0,0 +1,369 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.bpmn.BpmnTestClass;
+import io.flowcov.camunda.api.bpmn.BpmnTestMethod;
+import io.flowcov.camunda.api.bpmn.ExecutionPath;
+import io.flowcov.camunda.api.bpmn.FlowNode;
+import io.flowcov.camunda.api.bpmn.SequenceFlow;
+import io.flowcov.camunda.api.bpmn.TraceRun;
+import io.flowcov.camunda.api.bpmn.TraceStep;
+import io.flowcov.camunda.api.dmn.DmnModel;
+import io.flowcov.camunda.api.dmn.DmnTestClass;
+import io.flowcov.camunda.api.dmn.DmnTestMethod;
+import io.flowcov.camunda.api.dmn.Rule;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a coverage report in the compact binary format.
+ * <p>
+ * The file starts with the magic bytes {@code FCOV} and the format version, followed by
+ * one record per model and an end marker. Every record carries its own string table, so
+ * element keys, types and method names are stored once per model and referenced by their
+ * varint-encoded ordinal. Counters are zigzag varints relative to the previous start
+ * counter of the same test method, which keeps them to one or two bytes in practice.
+ */
+public class BinaryReportWriter implements ReportWriter {
+
+    static final byte[] MAGIC = {'F', 'C', 'O', 'V'};
+
+    static final int VERSION = 6;
+
+    static final int RECORD_END = 0;
+
+    static final int RECORD_BPMN_MODEL = 1;
+
+    static final int RECORD_DMN_MODEL = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+
+    /**
+     * Format version written, see {@link BinaryReportReader} for the differences.
+     */
+    private final int version;
+
+    private boolean dmnModelsStarted;
+
+    private boolean closed;
+
+    /**
+     * Opens the report file, replacing any existing report.
+     *
+     * @param reportPath
+     * @throws IOException
+     */
+    public BinaryReportWriter(final Path reportPath) throws IOException {
+        this(reportPath, VERSION);
+    }
+
+    /**
+     * Opens the report file in an older format version, omitting the data the version lacks.
+     *
+     * @param reportPath
+     * @param version    The format version, between 1 and {@link #VERSION}.
+     * @throws IOException
+     */
+    BinaryReportWriter(final Path reportPath, final int version) throws IOException {
+
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported binary FlowCov report version " + version);
+        }
+        this.version = version;
+
+        final Path parent = reportPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        out = new BufferedOutputStream(Files.newOutputStream(reportPath), BUFFER_SIZE);
+        out.write(MAGIC);
+        writeVarLong(out, version);
+    }
+
+    @Override
+    public void writeBpmnModel(final BpmnModel model) throws IOException {
+
+        if (dmnModelsStarted) {
+            throw new IllegalStateException("Cannot write BPMN models after DMN models");
+        }
+
+        final RecordEncoder record = new RecordEncoder();
+        record.string(model.getBpmnXml());
+        if (version >= 2) {
+            record.string(model.getBpmnXmlRef());
+        }
+        record.string(model.getName());
+        record.string(model.getVersion());
+        record.string(model.getProcessDefinitionKey());
+        record.signed(model.getTotalNodeCount());
+        record.signed(model.getHash());
+
+        final Collection<BpmnTestClass> testClasses = nonNull(model.getTestClasses());
+        record.unsigned(testClasses.size());
+        for (final BpmnTestClass testClass : testClasses) {
+            record.string(testClass.getName());
+
+            final Collection<BpmnTestMethod> testMethods = nonNull(testClass.getTestMethods());
+            record.unsigned(testMethods.size());
+            for (final BpmnTestMethod testMethod : testMethods) {
+                record.string(testMethod.getName());
+
+                long previousCounter = 0;
+                final Collection<FlowNode> flowNodes = nonNull(testMethod.getFlowNodes());
+                record.unsigned(flowNodes.size());
+                for (final FlowNode flowNode : flowNodes) {
+                    record.string(flowNode.getKey());
+                    record.string(flowNode.getType());
+                    record.nullableDelta(flowNode.getExecutionStartCounter(), previousCounter);
+                    record.nullableDelta(flowNode.getExecutionEndCounter(),
+                            flowNode.getExecutionStartCounter() != null ? flowNode.getExecutionStartCounter() : previousCounter);
+                    if (version >= 4) {
+                        record.nullableDelta(flowNode.getStartCount(), 0);
+                        record.nullableDelta(flowNode.getEndCount(), 0);
+                    }
+                    if (flowNode.getExecutionStartCounter() != null) {
+                        previousCounter = flowNode.getExecutionStartCounter();
+                    }
+                }
+
+                previousCounter = 0;
+                final Collection<SequenceFlow> sequenceFlows = nonNull(testMethod.getSequenceFlows());
+                record.unsigned(sequenceFlows.size());
+                for (final SequenceFlow sequenceFlow : sequenceFlows) {
+                    record.string(sequenceFlow.getKey());
+                    record.string(sequenceFlow.getInstanceId());
+                    record.signed(sequenceFlow.getExecutionStartCounter() - previousCounter);
+                    if (version >= 4) {
+                        record.nullableDelta(sequenceFlow.getTakeCount(), 0);
+                    }
+                    previousCounter = sequenceFlow.getExecutionStartCounter();
+                }
+
+                // Count plus one, zero if the method has no compressed trace
+                previousCounter = 0;
+                final Collection<TraceRun> traceRuns = version >= 5 ? testMethod.getTraceRuns() : null;
+                if (version >= 5) {
+                    record.unsigned(traceRuns != null ? traceRuns.size() + 1 : 0);
+                }
+                for (final TraceRun traceRun : nonNull(traceRuns)) {
+                    record.signed(traceRun.getExecutionCounter() - previousCounter);
+                    record.signed(traceRun.getStride());
+                    record.unsigned(traceRun.getRepeat());
+
+                    final Collection<TraceStep> steps = nonNull(traceRun.getSteps());
+                    record.unsigned(steps.size());
+                    for (final TraceStep step : steps) {
+                        record.string(step.getKey());
+                        record.unsigned(step.getEvent().ordinal());
+                        record.signed(step.getOffset());
+                    }
+                    previousCounter = traceRun.getExecutionCounter();
+                }
+
+                if (version >= 6) {
+                    writePaths(record, testMethod.getPaths());
+                }
+            }
+
+            if (version >= 6) {
+                writePaths(record, testClass.getPaths());
+            }
+        }
+
+        record.writeTo(out, RECORD_BPMN_MODEL);
+    }
+
+    /**
+     * Writes the paths preceded by their count plus one, zero if no paths were recorded.
+     */
+    private static void writePaths(final RecordEncoder record, final Collection<ExecutionPath> paths) throws IOException {
+
+        record.unsigned(paths != null ? paths.size() + 1 : 0);
+        for (final ExecutionPath path : nonNull(paths)) {
+            record.string(path.getFingerprint());
+            record.unsigned(path.isCompleted() ? 1 : 0);
+            record.unsigned(path.getCount());
+
+            final Collection<String> elements = nonNull(path.getElements());
+            record.unsigned(elements.size());
+            for (final String element : elements) {
+                record.string(element);
+            }
+        }
+    }
+
+    @Override
+    public void writeDmnModel(final DmnModel model) throws IOException {
+
+        dmnModelsStarted = true;
+
+        final RecordEncoder record = new RecordEncoder();
+        record.string(model.getDmnXml());
+        if (version >= 2) {
+            record.string(model.getDmnXmlRef());
+        }
+        record.string(model.getName());
+        record.string(model.getDecisionKey());
+        record.string(model.getVersion());
+        record.signed(model.getRuleCount());
+        record.signed(model.getHash());
+
+        final Collection<DmnTestClass> testClasses = nonNull(model.getTestClasses());
+        record.unsigned(testClasses.size());
+        for (final DmnTestClass testClass : testClasses) {
+            record.string(testClass.getName());
+            record.string(testClass.getExecutionEndTime() != null
+                    ? testClass.getExecutionEndTime().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+                    : null);
+
+            final Collection<DmnTestMethod> testMethods = nonNull(testClass.getTestMethods());
+            record.unsigned(testMethods.size());
+            for (final DmnTestMethod testMethod : testMethods) {
+                record.string(testMethod.getName());
+
+                final Collection<Rule> rules = nonNull(testMethod.getRules());
+                record.unsigned(rules.size());
+                for (final Rule rule : rules) {
+                    record.string(rule.getKey());
+                    record.signed(rule.getTimestamp());
+                    if (version >= 3) {
+                        record.unsigned(rule.getHitCount());
+                    }
+                }
+            }
+
+            if (version >= 3) {
+                final Map<String, Long> ruleHitCounts = testClass.getRuleHitCounts() != null
+                        ? testClass.getRuleHitCounts()
+                        : Collections.emptyMap();
+                record.unsigned(ruleHitCounts.size());
+                for (final Map.Entry<String, Long> ruleHitCount : ruleHitCounts.entrySet()) {
+                    record.string(ruleHitCount.getKey());
+                    record.unsigned(ruleHitCount.getValue());
+                }
+            }
+        }
+
+        record.writeTo(out, RECORD_DMN_MODEL);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                out.write(RECORD_END);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static <T> Collection<T> nonNull(final Collection<T> collection) {
+        return collection != null ? collection : Collections.emptyList();
+    }
+
+    static void writeVarLong(final OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Buffers the body of a record while collecting its string table.
+     */
+    private static class RecordEncoder {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private final Map<String, Integer> ordinals = new HashMap<>();
+
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * Writes a reference into the string table, 0 for null.
+         */
+        void string(final String value) throws IOException {
+            if (value == null) {
+                this.unsigned(0);
+                return;
+            }
+            Integer ordinal = ordinals.get(value);
+            if (ordinal == null) {
+                ordinal = strings.size();
+                ordinals.put(value, ordinal);
+                strings.add(value);
+            }
+            this.unsigned(ordinal + 1L);
+        }
+
+        void unsigned(final long value) throws IOException {
+            writeVarLong(body, value);
+        }
+
+        void signed(final long value) throws IOException {
+            writeVarLong(body, (value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes a value relative to a base, 0 for null.
+         */
+        void nullableDelta(final Long value, final long base) throws IOException {
+            if (value == null) {
+                this.unsigned(0);
+            } else {
+                final long delta = value - base;
+                this.unsigned(((delta << 1) ^ (delta >> 63)) + 1);
+            }
+        }
+
+        void writeTo(final OutputStream out, final int recordType) throws IOException {
+            out.write(recordType);
+            writeVarLong(out, strings.size());
+            for (final String value : strings) {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+            writeVarLong(out, body.size());
+            body.writeTo(out);
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+/**
+ * Features of the Camunda version found on the classpath, resolved once when the coverage
+ * extensions are configured. The instance is immutable and safe to read from any thread.
+ */
+public final class CamundaCapabilities {
+
+    private static volatile CamundaCapabilities resolved;
+
+    /**
+     * Whether compensation events reference their compensation boundary event.
+     *
+     * @since Camunda BPM 7.5.0
+     */
+    private final boolean compensationEventCoverage;
+
+    private CamundaCapabilities(final boolean compensationEventCoverage) {
+        this.compensationEventCoverage = compensationEventCoverage;
+    }
+
+    /**
+     * Resolves the capabilities of the Camunda version on the classpath. They are only
+     * resolved on the first call, later calls return the same instance.
+     *
+     * @return
+     */
+    public static CamundaCapabilities resolve() {
+        CamundaCapabilities capabilities = resolved;
+        if (capabilities == null) {
+            synchronized (CamundaCapabilities.class) {
+                capabilities = resolved;
+                if (capabilities == null) {
+                    capabilities = new CamundaCapabilities(Api.Camunda.supportsCompensationEventCoverage());
+                    resolved = capabilities;
+                }
+            }
+        }
+        return capabilities;
+    }
+
+    public boolean isCompensationEventCoverage() {
+        return compensationEventCoverage;
+    }
+
+}
@@ -16,7 +16,6 @@
 
 package io.flowcov.camunda.util;
 
-import io.flowcov.camunda.api.Build;
 import io.flowcov.camunda.api.bpmn.*;
 import io.flowcov.camunda.api.dmn.DmnModel;
 import io.flowcov.camunda.api.dmn.DmnTestClass;
@@ -24,17 +23,25 @@ import io.flowcov.camunda.api.dmn.DmnTestMethod;
 import io.flowcov.camunda.api.dmn.Rule;
 import io.flowcov.camunda.junit.FlowCovTestRunState;
 import io.flowcov.camunda.model.ClassCoverage;
+import io.flowcov.camunda.model.CompressedTrace;
+import io.flowcov.camunda.model.CoveredPath;
+import io.flowcov.camunda.model.MethodCoverage;
+import io.flowcov.camunda.model.ProcessElementDictionary;
 import lombok.val;
 import org.apache.commons.io.IOUtils;
-import org.camunda.bpm.engine.ProcessEngine;
 import org.camunda.bpm.engine.repository.DecisionDefinition;
 import org.camunda.bpm.engine.repository.ProcessDefinition;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -51,95 +58,127 @@ public class CoverageReportUtil {
      */
     public static final String TARGET_DIR_ROOT = "target/flowcov/";
 
+    /**
+     * Shared store of the model XML referenced by deduplicated reports.
+     */
+    private static final ModelBlobStore modelBlobStore = new ModelBlobStore(Paths.get(TARGET_DIR_ROOT, "models"));
+
     /**
      * Generates a coverage report for the whole test class. This method
      * requires that all tests have been executed with the same resources
      * deployed.
      *
-     * @param processEngine
      * @param coverageTestRunState
      */
-    public static void createClassReport(final ProcessEngine processEngine, final FlowCovTestRunState coverageTestRunState) {
+    public static void createClassReport(final FlowCovTestRunState coverageTestRunState) {
+
+        writeReport(createReportSnapshot(coverageTestRunState));
+
+    }
+
+    /**
+     * Captures the coverage of the whole test class for a later report. The models are copied
+     * right away, their XML is only loaded while the report is written.
+     *
+     * @param coverageTestRunState
+     * @return
+     */
+    public static ReportSnapshot createReportSnapshot(final FlowCovTestRunState coverageTestRunState) {
 
         final ClassCoverage coverage = coverageTestRunState.getClassCoverage();
-        final String reportDirectory = getReportDirectoryPath();
+        final String testClazz = coverageTestRunState.getTestClassName();
+        final ReportFormat reportFormat = coverageTestRunState.getReportFormat();
+        final boolean reportExecutionCounts = coverageTestRunState.isCountExecutions() || coverageTestRunState.isCompressTraces();
+        final boolean reportPaths = coverageTestRunState.isRecordPaths();
+
+        final Map<ProcessDefinition, BpmnModel> bpmnModels = new LinkedHashMap<>();
+        for (final ProcessDefinition processDefinition : coverage.getProcessDefinitions()) {
+            bpmnModels.put(processDefinition, parseProcessDefinition(coverage, testClazz, processDefinition, reportExecutionCounts, reportPaths));
+        }
 
-        createReport(coverage, reportDirectory, coverageTestRunState.getTestClassName());
+        final Map<DecisionDefinition, DmnModel> dmnModels = new LinkedHashMap<>();
+        for (final DecisionDefinition decisionDefinition : coverage.getDecisionDefinitions()) {
+            dmnModels.put(decisionDefinition, parseDecisionDefinition(coverage, testClazz, decisionDefinition));
+        }
 
+        return new ReportSnapshot(
+                Paths.get(getReportDirectoryPath(), testClazz, reportFormat.getFileName()),
+                reportFormat,
+                coverageTestRunState.isPrettyPrintReport(),
+                coverageTestRunState.isDeduplicateModelXml() ? modelBlobStore : null,
+                bpmnModels,
+                dmnModels);
     }
 
     /**
-     * Generates a coverage report.
+     * Generates a coverage report. Each model is completed with its XML and streamed to the
+     * report before the XML of the next one is loaded.
      *
-     * @param coverage
-     * @param reportDirectory The directory where the report will be stored.
-     * @param testClazz       Optional test class name for info box
+     * @param snapshot
      */
-    private static void createReport(final ClassCoverage coverage, final String reportDirectory, final String testClazz) {
+    public static void writeReport(final ReportSnapshot snapshot) {
+
+        final ModelBlobStore blobStore = snapshot.getBlobStore();
 
-        try {
-            val build = new Build();
+        try (val writer = snapshot.getReportFormat().open(snapshot.getReportPath(), snapshot.isPrettyPrint())) {
 
-            for (val definition : coverage.getProcessDefinitions()) {
-                build.getBpmnModels().add(parseProcessDefinition(coverage, testClazz, definition));
+            for (final Map.Entry<ProcessDefinition, BpmnModel> entry : snapshot.getBpmnModels().entrySet()) {
+                val model = entry.getValue();
+                val bpmnXml = getBpmnXml(entry.getKey());
+                model.setBpmnXml(blobStore == null ? bpmnXml : null);
+                model.setBpmnXmlRef(blobStore != null ? blobStore.store(bpmnXml) : null);
+                model.setHash(bpmnXml.hashCode());
+                writer.writeBpmnModel(model);
+                // Only the model being written holds its XML
+                model.setBpmnXml(null);
             }
 
-            for (val definition : coverage.getDecisionDefinitions()) {
-                build.getDmnModels().add(parseDecisionDefinition(coverage, testClazz, definition));
+            for (final Map.Entry<DecisionDefinition, DmnModel> entry : snapshot.getDmnModels().entrySet()) {
+                val model = entry.getValue();
+                val dmnXml = getDmnXml(entry.getKey());
+                model.setDmnXml(blobStore == null ? dmnXml : null);
+                model.setDmnXmlRef(blobStore != null ? blobStore.store(dmnXml) : null);
+                model.setHash(dmnXml.hashCode());
+                writer.writeDmnModel(model);
+                model.setDmnXml(null);
             }
 
-            FlowCovReporter.generateReport(
-                    reportDirectory + '/' + testClazz + "/flowCovReport.json",
-                    build);
         } catch (final IOException ex) {
 
-            logger.log(Level.SEVERE, "Unable to load process definition!", ex);
-            throw new RuntimeException();
+            logger.log(Level.SEVERE, "Unable to write coverage report " + snapshot.getReportPath(), ex);
+            throw new RuntimeException("Unable to write coverage report " + snapshot.getReportPath(), ex);
         }
 
     }
 
     private static BpmnModel parseProcessDefinition(final ClassCoverage coverage, final String testClazz, final ProcessDefinition
-            processDefinition) throws IOException {
-
-        val bpmnXml = getBpmnXml(processDefinition);
+            processDefinition, final boolean reportExecutionCounts, final boolean reportPaths) {
 
         val model = BpmnModel.builder()
-                .bpmnXml(bpmnXml)
                 .processDefinitionKey(processDefinition.getKey())
                 .name(processDefinition.getName())
                 .version(processDefinition.getVersionTag())
-                .hash(bpmnXml.hashCode())
                 .build();
 
         final List<BpmnTestMethod> testMethods = coverage.getTestMethodCoverage()
                 .values()
                 .stream()
                 .filter(m -> m.getName() != null).map(value -> {
-                    model.setTotalNodeCount(value.getProcessElementCount(processDefinition.getKey()));
-                    val coveredFlowNodes = value.getCoveredFlowNodes(processDefinition.getKey())
-                            .stream()
-                            .map(node -> FlowNode.builder()
-                                    .executionStartCounter(node.getExecutionStartCounter())
-                                    .executionEndCounter(node.getExecutionEndCoutner())
-                                    .key(node.getElementId())
-                                    .type(node.getType())
-                                    .build()
-                            ).collect(Collectors.toList());
+                    val processElementCount = value.getProcessElementCount(processDefinition.getKey());
+                    if (processElementCount != null) {
+                        model.setTotalNodeCount(processElementCount);
+                    }
 
-                    val coveredSequenceFlowIds = value.getCoveredSequenceFlows(
-                            processDefinition.getKey()).stream()
-                            .map(obj -> SequenceFlow.builder()
-                                    .key(obj.getTransitionId())
-                                    .executionStartCounter(obj.getExecutionStartCounter())
-                                    .build())
-                            .collect(Collectors.toList());
-
-                    return BpmnTestMethod.builder()
-                            .flowNodes(coveredFlowNodes)
-                            .sequenceFlows(coveredSequenceFlowIds)
-                            .name(value.getName())
-                            .build();
+                    final BpmnTestMethod testMethod = reportExecutionCounts
+                            ? parseExecutionCounts(value, processDefinition.getKey())
+                            : parseExecutionTrace(value, processDefinition.getKey());
+
+                    if (reportPaths) {
+                        testMethod.setPaths(parseCoveredPaths(value.getCoveredPaths(processDefinition.getKey()),
+                                value.getElementDictionary(processDefinition.getKey())));
+                    }
+
+                    return testMethod;
 
                 }).collect(Collectors.toList());
 
@@ -148,23 +187,150 @@ public class CoverageReportUtil {
                 .testMethods(testMethods)
                 .build();
 
+        val dictionary = coverage.getElementDictionary(processDefinition.getKey());
+        if (reportPaths && dictionary != null) {
+            testClass.setPaths(parseCoveredPaths(coverage.getCoveredPaths(processDefinition.getKey()), dictionary));
+        }
+
         model.getTestClasses().add(testClass);
 
         return model;
     }
 
+    /**
+     * Creates a test method containing every traced execution of the elements.
+     *
+     * @param methodCoverage
+     * @param processDefinitionKey
+     * @return
+     */
+    private static BpmnTestMethod parseExecutionTrace(final MethodCoverage methodCoverage, final String processDefinitionKey) {
 
-    private static DmnModel parseDecisionDefinition(final ClassCoverage coverage, final String testClazz, final DecisionDefinition
-            decisionDefinition) throws IOException {
+        val coveredFlowNodes = methodCoverage.getCoveredFlowNodes(processDefinitionKey)
+                .stream()
+                .map(node -> FlowNode.builder()
+                        .executionStartCounter(node.getExecutionStartCounter())
+                        .executionEndCounter(node.getExecutionEndCoutner())
+                        .key(node.getElementId())
+                        .type(node.getType())
+                        .build()
+                ).collect(Collectors.toList());
+
+        val coveredSequenceFlowIds = methodCoverage.getCoveredSequenceFlows(processDefinitionKey)
+                .stream()
+                .map(obj -> SequenceFlow.builder()
+                        .key(obj.getTransitionId())
+                        .executionStartCounter(obj.getExecutionStartCounter())
+                        .build())
+                .collect(Collectors.toList());
+
+        return BpmnTestMethod.builder()
+                .flowNodes(coveredFlowNodes)
+                .sequenceFlows(coveredSequenceFlowIds)
+                .name(methodCoverage.getName())
+                .build();
+    }
 
-        val bpmnXml = getDmnXml(decisionDefinition);
+    /**
+     * Creates the report paths, most frequent first.
+     *
+     * @param coveredPaths
+     * @param dictionary
+     * @return
+     */
+    private static List<ExecutionPath> parseCoveredPaths(final Map<CoveredPath, Long> coveredPaths,
+                                                         final ProcessElementDictionary dictionary) {
+
+        return coveredPaths.entrySet().stream()
+                .sorted(Map.Entry.<CoveredPath, Long>comparingByValue().reversed()
+                        .thenComparing(entry -> entry.getKey().getFingerprintHex()))
+                .map(entry -> ExecutionPath.builder()
+                        .fingerprint(entry.getKey().getFingerprintHex())
+                        .completed(entry.getKey().isCompleted())
+                        .count(entry.getValue())
+                        .elements(Arrays.stream(entry.getKey().getElementOrdinals())
+                                .mapToObj(dictionary::getElementId)
+                                .collect(Collectors.toList()))
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Creates a test method containing each executed element once with its execution counts
+     * and the compressed execution trace, if recorded.
+     *
+     * @param methodCoverage
+     * @param processDefinitionKey
+     * @return
+     */
+    private static BpmnTestMethod parseExecutionCounts(final MethodCoverage methodCoverage, final String processDefinitionKey) {
+
+        val dictionary = methodCoverage.getElementDictionary(processDefinitionKey);
+        val startCounts = methodCoverage.getExecutionStartCounts(processDefinitionKey);
+        val endCounts = methodCoverage.getExecutionEndCounts(processDefinitionKey);
+
+        final List<FlowNode> flowNodes = new ArrayList<>();
+        final List<SequenceFlow> sequenceFlows = new ArrayList<>();
+
+        for (int ordinal = 0; ordinal < startCounts.length; ordinal++) {
+            if (startCounts[ordinal] == 0) {
+                continue;
+            }
+
+            if (dictionary.isFlowNode(ordinal)) {
+                flowNodes.add(FlowNode.builder()
+                        .key(dictionary.getElementId(ordinal))
+                        .type(dictionary.getElementType(ordinal))
+                        .startCount(startCounts[ordinal])
+                        .endCount(endCounts[ordinal])
+                        .build());
+            } else {
+                sequenceFlows.add(SequenceFlow.builder()
+                        .key(dictionary.getElementId(ordinal))
+                        .takeCount(startCounts[ordinal])
+                        .build());
+            }
+        }
+
+        val compressedTraceRuns = methodCoverage.getCompressedTraceRuns(processDefinitionKey);
+        final List<TraceRun> traceRuns = compressedTraceRuns == null ? null : compressedTraceRuns.stream()
+                .map(run -> parseTraceRun(run, dictionary))
+                .collect(Collectors.toList());
+
+        return BpmnTestMethod.builder()
+                .flowNodes(flowNodes)
+                .sequenceFlows(sequenceFlows)
+                .traceRuns(traceRuns)
+                .name(methodCoverage.getName())
+                .build();
+    }
+
+    private static TraceRun parseTraceRun(final CompressedTrace.Run run, final ProcessElementDictionary dictionary) {
+
+        final List<TraceStep> steps = new ArrayList<>(run.size());
+        for (int i = 0; i < run.size(); i++) {
+            steps.add(TraceStep.builder()
+                    .key(dictionary.getElementId(run.getElementOrdinal(i)))
+                    .event(TraceEvent.values()[run.getKind(i)])
+                    .offset(run.getOffset(i))
+                    .build());
+        }
+
+        return TraceRun.builder()
+                .executionCounter(run.getBase())
+                .stride(run.getStride())
+                .repeat(run.getRepeat())
+                .steps(steps)
+                .build();
+    }
+
+    private static DmnModel parseDecisionDefinition(final ClassCoverage coverage, final String testClazz, final DecisionDefinition
+            decisionDefinition) {
 
         val model = DmnModel.builder()
-                .dmnXml(bpmnXml)
                 .decisionKey(decisionDefinition.getKey())
                 .name(decisionDefinition.getName())
                 .version(decisionDefinition.getVersionTag())
-                .hash(bpmnXml.hashCode())
                 .build();
 
         final List<DmnTestMethod> testMethods = coverage.getTestMethodCoverage()
@@ -173,10 +339,12 @@ public class CoverageReportUtil {
                 .filter(m -> m.getName() != null).map(value -> {
 
                     model.setRuleCount(value.getDecisionRuleCount(decisionDefinition.getKey()));
+                    val ruleHitCounts = value.getRuleHitCounts(decisionDefinition.getKey());
                     val coveredFlowNodes = value.getCoveredDecisionRules(decisionDefinition.getKey())
                             .stream()
                             .map(rule -> Rule.builder()
                                     .key(rule.getRuleId())
+                                    .hitCount(ruleHitCounts.getOrDefault(rule.getRuleId(), 0L))
                                     .build()
                             ).collect(Collectors.toList());
 
@@ -191,6 +359,7 @@ public class CoverageReportUtil {
                 .name(testClazz)
                 .executionEndTime(LocalDateTime.now())
                 .testMethods(testMethods)
+                .ruleHitCounts(coverage.getRuleHitCounts(decisionDefinition.getKey()))
                 .build();
 
         model.getTestClasses().add(testClass);
@@ -199,6 +368,15 @@ public class CoverageReportUtil {
     }
 
 
+    /**
+     * Retrieves the store of the model XML referenced by deduplicated reports.
+     *
+     * @return
+     */
+    public static ModelBlobStore getModelBlobStore() {
+        return modelBlobStore;
+    }
+
     /**
      * Retrieves directory path for all coverage reports of a test class.
      *
@@ -216,14 +394,7 @@ public class CoverageReportUtil {
      * @throws IOException Thrown if the BPMN resource is not found.
      */
     protected static String getBpmnXml(final ProcessDefinition processDefinition) throws IOException {
-
-        InputStream inputStream = CoverageReportUtil.class.getClassLoader().getResourceAsStream(
-                processDefinition.getResourceName());
-        if (inputStream == null) {
-            inputStream = new FileInputStream(processDefinition.getResourceName());
-        }
-
-        return IOUtils.toString(inputStream);
+        return readResource(processDefinition.getResourceName());
     }
 
     /**
@@ -234,14 +405,22 @@ public class CoverageReportUtil {
      * @throws IOException Thrown if the BPMN resource is not found.
      */
     protected static String getDmnXml(final DecisionDefinition decisionDefinition) throws IOException {
+        return readResource(decisionDefinition.getResourceName());
+    }
 
-        InputStream inputStream = CoverageReportUtil.class.getClassLoader().getResourceAsStream(
-                decisionDefinition.getResourceName());
-        if (inputStream == null) {
-            inputStream = new FileInputStream(decisionDefinition.getResourceName());
-        }
+    /**
+     * Reads a deployed resource from the class path or else from the file system.
+     *
+     * @param resourceName
+     * @return
+     * @throws IOException Thrown if the resource is not found.
+     */
+    private static String readResource(final String resourceName) throws IOException {
 
-        return IOUtils.toString(inputStream);
+        final InputStream classPathStream = CoverageReportUtil.class.getClassLoader().getResourceAsStream(resourceName);
+        try (InputStream inputStream = classPathStream != null ? classPathStream : new FileInputStream(resourceName)) {
+            return IOUtils.toString(inputStream);
+        }
     }
 
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.dmn.DmnModel;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+
+/**
+ * Streams a FlowCov JSON report to a file. Models are serialized directly into a
+ * buffered channel as they are written, so neither the whole build nor its JSON
+ * string has to be held in memory. The output has the same structure as a serialized
+ * {@link io.flowcov.camunda.api.Build}: all BPMN models followed by all DMN models.
+ */
+public class FlowCovReportWriter implements ReportWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateAdapter())
+            .create();
+
+    private enum Section {
+        NONE, BPMN_MODELS, DMN_MODELS, CLOSED
+    }
+
+    private final JsonWriter jsonWriter;
+
+    private Section section = Section.NONE;
+
+    /**
+     * Opens the report file, replacing any existing report.
+     *
+     * @param reportPath
+     * @param prettyPrint Whether to indent the output.
+     * @throws IOException
+     */
+    public FlowCovReportWriter(final Path reportPath, final boolean prettyPrint) throws IOException {
+
+        final Path parent = reportPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        final FileChannel channel = FileChannel.open(reportPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final Writer writer = new BufferedWriter(
+                Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+
+        jsonWriter = new JsonWriter(writer);
+        if (prettyPrint) {
+            jsonWriter.setIndent("  ");
+        }
+        jsonWriter.beginObject();
+    }
+
+    @Override
+    public void writeBpmnModel(final BpmnModel model) throws IOException {
+        this.enterSection(Section.BPMN_MODELS);
+        gson.toJson(model, BpmnModel.class, jsonWriter);
+    }
+
+    @Override
+    public void writeDmnModel(final DmnModel model) throws IOException {
+        this.enterSection(Section.DMN_MODELS);
+        gson.toJson(model, DmnModel.class, jsonWriter);
+    }
+
+    /**
+     * Completes the report and closes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (section != Section.CLOSED) {
+            try {
+                this.enterSection(Section.CLOSED);
+                jsonWriter.endObject();
+            } finally {
+                jsonWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Moves forward to the given section, emitting the (possibly empty) arrays of the
+     * sections in between.
+     */
+    private void enterSection(final Section target) throws IOException {
+
+        if (target.ordinal() < section.ordinal()) {
+            throw new IllegalStateException("Cannot write " + target + " after " + section);
+        }
+
+        while (section != target) {
+            if (section != Section.NONE) {
+                jsonWriter.endArray();
+            }
+            section = Section.values()[section.ordinal() + 1];
+            if (section == Section.BPMN_MODELS) {
+                jsonWriter.name("bpmnModels").beginArray();
+            } else if (section == Section.DMN_MODELS) {
+                jsonWriter.name("dmnModels").beginArray();
+            }
+        }
+    }
+
+}
@@ -16,15 +16,13 @@
 
 package io.flowcov.camunda.util;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import io.flowcov.camunda.api.Build;
 import lombok.val;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.time.LocalDateTime;
+import java.nio.file.Paths;
 
 /**
  * Util generating JSON process test coverage reports.
@@ -33,7 +31,7 @@ public class FlowCovReporter {
 
 
     /**
-     * Generates the FlowCov Json report.
+     * Generates the compact FlowCov Json report.
      *
      * @param reportPath
      * @param run
@@ -43,13 +41,31 @@ public class FlowCovReporter {
             String reportPath,
             Build run) throws IOException {
 
-        Gson gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .registerTypeAdapter(LocalDateTime.class, new LocalDateAdapter())
-                .create();
-        
-        val reportJson = gson.toJson(run);
-        writeToFile(reportPath, reportJson);
+        generateReport(reportPath, run, false);
+
+    }
+
+    /**
+     * Generates the FlowCov Json report.
+     *
+     * @param reportPath
+     * @param run
+     * @param prettyPrint Whether to indent the output.
+     * @throws IOException
+     */
+    public static void generateReport(
+            String reportPath,
+            Build run,
+            boolean prettyPrint) throws IOException {
+
+        try (val writer = new FlowCovReportWriter(Paths.get(reportPath), prettyPrint)) {
+            for (val model : run.getBpmnModels()) {
+                writer.writeBpmnModel(model);
+            }
+            for (val model : run.getDmnModels()) {
+                writer.writeDmnModel(model);
+            }
+        }
 
     }
 
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches keys against a set of exact keys and glob patterns, where {@code *} matches any
+ * sequence of characters and {@code ?} a single character. The globs are compiled once into
+ * a single regular expression and the results are cached per key.
+ */
+public class KeyMatcher {
+
+    private static final KeyMatcher NONE = new KeyMatcher(Collections.emptySet(), null);
+
+    /**
+     * Keys without wildcards.
+     */
+    private final Set<String> exactKeys;
+
+    /**
+     * Alternation of all globs, null if there are none.
+     */
+    private final Pattern globPattern;
+
+    /**
+     * Glob match results accessed by the key.
+     */
+    private final Map<String, Boolean> globMatches = new ConcurrentHashMap<>();
+
+    private KeyMatcher(final Set<String> exactKeys, final Pattern globPattern) {
+        this.exactKeys = exactKeys;
+        this.globPattern = globPattern;
+    }
+
+    /**
+     * Compiles the keys and glob patterns.
+     *
+     * @param patterns The keys and glob patterns, may be null.
+     * @return
+     */
+    public static KeyMatcher compile(final Collection<String> patterns) {
+
+        if (patterns == null || patterns.isEmpty()) {
+            return NONE;
+        }
+
+        final Set<String> exactKeys = new HashSet<>();
+        final StringJoiner globs = new StringJoiner("|");
+        for (final String pattern : patterns) {
+            if (pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0) {
+                globs.add("(?:" + toRegex(pattern) + ")");
+            } else {
+                exactKeys.add(pattern);
+            }
+        }
+
+        return new KeyMatcher(exactKeys, globs.length() > 0 ? Pattern.compile(globs.toString()) : null);
+    }
+
+    /**
+     * Checks whether the key equals one of the keys or matches one of the glob patterns.
+     *
+     * @param key
+     * @return
+     */
+    public boolean matches(final String key) {
+
+        if (key == null) {
+            return false;
+        }
+        if (exactKeys.contains(key)) {
+            return true;
+        }
+        if (globPattern == null) {
+            return false;
+        }
+        return globMatches.computeIfAbsent(key, k -> globPattern.matcher(k).matches());
+    }
+
+    /**
+     * Checks whether no key can match.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return exactKeys.isEmpty() && globPattern == null;
+    }
+
+    private static String toRegex(final String glob) {
+
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (final char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import io.flowcov.camunda.api.Build;
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.dmn.DmnModel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed store for the BPMN/DMN XML of the reported models. Every distinct
+ * XML is written once as {@code <sha-256>.xml}, and reports reference it by that hash
+ * instead of embedding it. {@link #resolve(Build)} puts the XML back into a report
+ * before it is merged or uploaded.
+ */
+public class ModelBlobStore {
+
+    private static final String BLOB_SUFFIX = ".xml";
+
+    private final Path directory;
+
+    /**
+     * Hashes of the blobs known to exist, saving a file system lookup for every report.
+     */
+    private final Set<String> storedHashes = ConcurrentHashMap.newKeySet();
+
+    public ModelBlobStore(final Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores the XML unless a blob with the same content exists already.
+     *
+     * @param xml
+     * @return The reference of the blob.
+     * @throws IOException
+     */
+    public String store(final String xml) throws IOException {
+
+        final byte[] content = xml.getBytes(StandardCharsets.UTF_8);
+        final String hash = HashUtil.sha256(content);
+
+        if (storedHashes.contains(hash)) {
+            return hash;
+        }
+
+        final Path blob = this.getBlobPath(hash);
+        if (!Files.exists(blob)) {
+            Files.createDirectories(directory);
+
+            // Write to a temporary file first, so concurrent writers never expose a partial blob
+            final Path temporaryBlob = Files.createTempFile(directory, hash, ".tmp");
+            try {
+                Files.write(temporaryBlob, content);
+                Files.move(temporaryBlob, blob, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final FileAlreadyExistsException ex) {
+                // Stored concurrently with the same content
+            } finally {
+                Files.deleteIfExists(temporaryBlob);
+            }
+        }
+
+        storedHashes.add(hash);
+        return hash;
+    }
+
+    /**
+     * Loads the XML of a blob.
+     *
+     * @param reference
+     * @return
+     * @throws IOException Thrown if the blob does not exist.
+     */
+    public String load(final String reference) throws IOException {
+        return new String(Files.readAllBytes(this.getBlobPath(reference)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Embeds the referenced XML into all models of the build that do not carry it already.
+     *
+     * @param build
+     * @return The build.
+     * @throws IOException Thrown if a referenced blob does not exist.
+     */
+    public Build resolve(final Build build) throws IOException {
+
+        for (final BpmnModel model : build.getBpmnModels()) {
+            if (model.getBpmnXml() == null && model.getBpmnXmlRef() != null) {
+                model.setBpmnXml(this.load(model.getBpmnXmlRef()));
+            }
+        }
+
+        for (final DmnModel model : build.getDmnModels()) {
+            if (model.getDmnXml() == null && model.getDmnXmlRef() != null) {
+                model.setDmnXml(this.load(model.getDmnXmlRef()));
+            }
+        }
+
+        return build;
+    }
+
+    private Path getBlobPath(final String reference) {
+        if (!reference.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException("Invalid model blob reference " + reference);
+        }
+        return directory.resolve(reference + BLOB_SUFFIX);
+    }
+
+}
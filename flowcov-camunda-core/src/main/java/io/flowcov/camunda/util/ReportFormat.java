@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * File formats of the coverage report.
+ */
+public enum ReportFormat {
+
+    /**
+     * JSON serialization of the {@link io.flowcov.camunda.api.Build}, as expected by FlowCov.
+     */
+    JSON("flowCovReport.json"),
+
+    /**
+     * Compact binary encoding, see {@link BinaryReportWriter}. Can be converted to JSON
+     * with {@link BinaryReportConverter}.
+     */
+    BINARY("flowCovReport.fcov");
+
+    private final String fileName;
+
+    ReportFormat(final String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Opens a writer for a report in this format.
+     *
+     * @param reportPath
+     * @param prettyPrint Whether to indent the output. Ignored by binary reports.
+     * @return
+     * @throws IOException
+     */
+    public ReportWriter open(final Path reportPath, final boolean prettyPrint) throws IOException {
+        if (this == BINARY) {
+            return new BinaryReportWriter(reportPath);
+        }
+        return new FlowCovReportWriter(reportPath, prettyPrint);
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.dmn.DmnModel;
+import lombok.Getter;
+import org.camunda.bpm.engine.repository.DecisionDefinition;
+import org.camunda.bpm.engine.repository.ProcessDefinition;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Coverage of a test class captured for a report. The models are copied from the class coverage
+ * when the snapshot is created, so the coverage may change afterwards. Only loading the model XML
+ * and serializing are left to the time the report is written.
+ */
+@Getter
+public class ReportSnapshot {
+
+    private final Path reportPath;
+
+    private final ReportFormat reportFormat;
+
+    private final boolean prettyPrint;
+
+    /**
+     * Store the model XML is referenced from, null to embed the XML.
+     */
+    private final ModelBlobStore blobStore;
+
+    /**
+     * The BPMN models without their XML by process definition, in report order.
+     */
+    private final Map<ProcessDefinition, BpmnModel> bpmnModels;
+
+    /**
+     * The DMN models without their XML by decision definition, in report order.
+     */
+    private final Map<DecisionDefinition, DmnModel> dmnModels;
+
+    ReportSnapshot(final Path reportPath, final ReportFormat reportFormat, final boolean prettyPrint, final ModelBlobStore blobStore,
+                   final Map<ProcessDefinition, BpmnModel> bpmnModels, final Map<DecisionDefinition, DmnModel> dmnModels) {
+        this.reportPath = reportPath;
+        this.reportFormat = reportFormat;
+        this.prettyPrint = prettyPrint;
+        this.blobStore = blobStore;
+        this.bpmnModels = Collections.unmodifiableMap(bpmnModels);
+        this.dmnModels = Collections.unmodifiableMap(dmnModels);
+    }
+
+}
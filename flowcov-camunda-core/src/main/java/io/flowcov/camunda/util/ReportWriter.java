@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.dmn.DmnModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writer streaming the models of a coverage report to a file.
+ */
+public interface ReportWriter extends Closeable {
+
+    /**
+     * Writes a BPMN model. All BPMN models must be written before the first DMN model.
+     *
+     * @param model
+     * @throws IOException
+     */
+    void writeBpmnModel(BpmnModel model) throws IOException;
+
+    /**
+     * Writes a DMN model.
+     *
+     * @param model
+     * @throws IOException
+     */
+    void writeDmnModel(DmnModel model) throws IOException;
+
+}
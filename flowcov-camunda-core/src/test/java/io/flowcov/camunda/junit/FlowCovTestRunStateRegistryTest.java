@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.junit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class FlowCovTestRunStateRegistryTest {
+
+    @Test
+    public void recordsStandaloneDecisionsOfParallelTestsByThread() throws Exception {
+
+        final FlowCovTestRunStateRegistry registry = new FlowCovTestRunStateRegistry();
+        final FlowCovTestRunState classState = new FlowCovTestRunStateFactory().create("DecisionTest", null);
+        final FlowCovTestRunState first = classState.forTestMethod("first");
+        final FlowCovTestRunState second = classState.forTestMethod("second");
+        registry.register("deployment-first", first);
+        registry.register("deployment-second", second);
+
+        // Both methods evaluate the latest decision version by key, which is deployed by the second method
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<FlowCovTestRunState> firstResolved = executor.submit(() -> resolveBound(registry, first, barrier));
+            final Future<FlowCovTestRunState> secondResolved = executor.submit(() -> resolveBound(registry, second, barrier));
+
+            assertSame(first, firstResolved.get(30, TimeUnit.SECONDS));
+            assertSame(second, secondResolved.get(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void recordsUnboundThreadsByProcessInstanceOrDeployment() {
+
+        final FlowCovTestRunStateRegistry registry = new FlowCovTestRunStateRegistry();
+        final FlowCovTestRunState classState = new FlowCovTestRunStateFactory().create("ProcessTest", null);
+        final FlowCovTestRunState first = classState.forTestMethod("first");
+        final FlowCovTestRunState second = classState.forTestMethod("second");
+        registry.register("deployment-first", first);
+        registry.register("deployment-second", second);
+        registry.setDefaultState(classState);
+
+        // The first method starts an instance of the deployment of the second method
+        FlowCovTestRunStateRegistry.bindThreadState(first);
+        try {
+            assertSame(first, registry.resolve("deployment-second", "instance"));
+        } finally {
+            FlowCovTestRunStateRegistry.unbindThreadState();
+        }
+
+        // Jobs of the instance are executed by another thread
+        assertSame(first, registry.resolve("deployment-second", "instance"));
+        assertSame(second, registry.resolve("deployment-second", null));
+        assertSame(classState, registry.resolve("deployment-unknown", null));
+
+        registry.unregister("deployment-first");
+        assertSame(second, registry.resolve("deployment-second", "instance"));
+    }
+
+    private static FlowCovTestRunState resolveBound(final FlowCovTestRunStateRegistry registry, final FlowCovTestRunState state,
+                                                    final CyclicBarrier barrier) throws Exception {
+
+        FlowCovTestRunStateRegistry.bindThreadState(state);
+        try {
+            barrier.await(30, TimeUnit.SECONDS);
+            return registry.resolve("deployment-second", null);
+        } finally {
+            FlowCovTestRunStateRegistry.unbindThreadState();
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import org.camunda.bpm.engine.ProcessEngine;
+import org.camunda.bpm.engine.RepositoryService;
+import org.camunda.bpm.engine.impl.persistence.entity.ProcessDefinitionEntity;
+import org.camunda.bpm.model.bpmn.Bpmn;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClassCoverageTest {
+
+    private static final String PROCESS_DEFINITION_KEY = "order";
+
+    private final ProcessEngine processEngine = createProcessEngine();
+
+    @Test
+    public void resolvesCoveredElementsWithTheDictionaryOfEachTestMethod() {
+
+        // Both deployments parsed the process, but registered its elements in a different order
+        final MethodCoverage first = this.createMethodCoverage("first", "start", "flow1", "task", "flow2", "end");
+        final MethodCoverage second = this.createMethodCoverage("second", "end", "flow2", "task", "flow1", "start");
+        this.countExecution(first, "start");
+        this.countExecution(first, "flow1");
+        this.countExecution(second, "end");
+
+        final ClassCoverage classCoverage = new ClassCoverage();
+        classCoverage.addTestMethodCoverage("undeployed", new MethodCoverage("deployment-undeployed", "undeployed"));
+        classCoverage.addTestMethodCoverage("first", first);
+        classCoverage.addTestMethodCoverage("second", second);
+
+        assertEquals(Arrays.asList("start", "end"), classCoverage.getCoveredFlowNodes(PROCESS_DEFINITION_KEY).stream()
+                .map(CoveredFlowNode::getElementId)
+                .collect(Collectors.toList()));
+        assertEquals(Arrays.asList("flow1"), classCoverage.getCoveredSequenceFlows(PROCESS_DEFINITION_KEY).stream()
+                .map(CoveredSequenceFlow::getElementId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void treatsProcessDefinitionsNotDeployedByTheTestMethodAsUncovered() {
+
+        final MethodCoverage methodCoverage = new MethodCoverage("deployment-undeployed", "undeployed");
+
+        assertNull(methodCoverage.getElementDictionary(PROCESS_DEFINITION_KEY));
+        assertNull(methodCoverage.getProcessElementCount(PROCESS_DEFINITION_KEY));
+        assertNull(methodCoverage.getCompressedTraceRuns(PROCESS_DEFINITION_KEY));
+        assertTrue(methodCoverage.getCoveredFlowNodes(PROCESS_DEFINITION_KEY).isEmpty());
+        assertTrue(methodCoverage.getCoveredSequenceFlows(PROCESS_DEFINITION_KEY).isEmpty());
+        assertTrue(methodCoverage.getCoveredElementOrdinals(PROCESS_DEFINITION_KEY).isEmpty());
+
+        final ClassCoverage classCoverage = new ClassCoverage();
+        classCoverage.addTestMethodCoverage("undeployed", methodCoverage);
+
+        assertNull(classCoverage.getElementDictionary(PROCESS_DEFINITION_KEY));
+        assertTrue(classCoverage.getCoveredFlowNodes(PROCESS_DEFINITION_KEY).isEmpty());
+        assertTrue(classCoverage.getCoveredPaths(PROCESS_DEFINITION_KEY).isEmpty());
+    }
+
+    private MethodCoverage createMethodCoverage(final String name, final String... elementIds) {
+
+        final ProcessDefinitionEntity processDefinition = new ProcessDefinitionEntity();
+        processDefinition.setId(PROCESS_DEFINITION_KEY + ":1:" + name);
+        processDefinition.setKey(PROCESS_DEFINITION_KEY);
+        processDefinition.setDeploymentId("deployment-" + name);
+        processDefinition.setResourceName("order.bpmn");
+
+        final ProcessElementDictionary dictionary = ProcessElementDictionary.getOrCreate(processDefinition, PROCESS_DEFINITION_KEY);
+        for (final String elementId : elementIds) {
+            if (elementId.startsWith("flow")) {
+                dictionary.registerSequenceFlow(elementId);
+            } else {
+                dictionary.registerFlowNode(elementId, "task".equals(elementId) ? "userTask" : elementId + "Event");
+            }
+        }
+
+        final MethodCoverage methodCoverage = new MethodCoverage(processDefinition.getDeploymentId(), name);
+        methodCoverage.addProcessCoverage(new ProcessCoverage(processEngine, processDefinition));
+        return methodCoverage;
+    }
+
+    private void countExecution(final MethodCoverage methodCoverage, final String elementId) {
+        final int ordinal = methodCoverage.getElementDictionary(PROCESS_DEFINITION_KEY).getOrdinal(elementId);
+        methodCoverage.countExecutionStart(PROCESS_DEFINITION_KEY, ordinal);
+    }
+
+    /**
+     * Creates an engine that only serves the BPMN resource read for the definition metadata.
+     */
+    private static ProcessEngine createProcessEngine() {
+
+        final byte[] bpmnXml = Bpmn.convertToString(Bpmn.createExecutableProcess(PROCESS_DEFINITION_KEY)
+                .startEvent("start")
+                .sequenceFlowId("flow1")
+                .userTask("task")
+                .sequenceFlowId("flow2")
+                .endEvent("end")
+                .done()).getBytes(StandardCharsets.UTF_8);
+
+        final RepositoryService repositoryService = (RepositoryService) Proxy.newProxyInstance(
+                ClassCoverageTest.class.getClassLoader(), new Class<?>[]{RepositoryService.class},
+                (proxy, method, args) -> new ByteArrayInputStream(bpmnXml));
+
+        return (ProcessEngine) Proxy.newProxyInstance(
+                ClassCoverageTest.class.getClassLoader(), new Class<?>[]{ProcessEngine.class},
+                (proxy, method, args) -> repositoryService);
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompressedTraceTest {
+
+    @Test
+    public void expandsSimpleLoop() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        event(events, 0, CompressedTrace.START, counter++);
+        for (int i = 0; i < 100; i++) {
+            event(events, 1, CompressedTrace.START, counter++);
+            event(events, 1, CompressedTrace.END, counter++);
+            event(events, 2, CompressedTrace.TAKE, counter++);
+        }
+        event(events, 3, CompressedTrace.START, counter);
+
+        final List<CompressedTrace.Run> runs = compress(events);
+
+        assertEquals(events, expand(runs));
+        assertTrue(runs.size() <= 3, "Loop is folded into a single run");
+    }
+
+    @Test
+    public void expandsNestedLoops() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        for (int outer = 0; outer < 20; outer++) {
+            event(events, 0, CompressedTrace.START, counter++);
+            for (int inner = 0; inner < 7; inner++) {
+                event(events, 1, CompressedTrace.START, counter++);
+                event(events, 1, CompressedTrace.END, counter++);
+                event(events, 2, CompressedTrace.TAKE, counter++);
+            }
+            event(events, 3, CompressedTrace.TAKE, counter++);
+            event(events, 0, CompressedTrace.END, counter++);
+        }
+
+        assertEquals(events, expand(compress(events)));
+    }
+
+    @Test
+    public void foldsNestedLoopsIntoBoundedRuns() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        for (int outer = 0; outer < 1000; outer++) {
+            event(events, 0, CompressedTrace.START, counter++);
+            for (int inner = 0; inner < 7; inner++) {
+                event(events, 1, CompressedTrace.START, counter++);
+                event(events, 1, CompressedTrace.END, counter++);
+                event(events, 2, CompressedTrace.TAKE, counter++);
+            }
+            event(events, 3, CompressedTrace.TAKE, counter++);
+            event(events, 0, CompressedTrace.END, counter++);
+        }
+
+        final List<CompressedTrace.Run> runs = compress(events);
+
+        assertEquals(events, expand(runs));
+        assertTrue(runs.size() <= 4, "Outer loop is folded into a single run, got " + runs.size());
+    }
+
+    @Test
+    public void foldsThreeLevelLoopsIntoBoundedRuns() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        for (int outer = 0; outer < 200; outer++) {
+            event(events, 0, CompressedTrace.START, counter++);
+            for (int middle = 0; middle < 4; middle++) {
+                event(events, 1, CompressedTrace.START, counter++);
+                for (int inner = 0; inner < 5; inner++) {
+                    event(events, 2, CompressedTrace.START, counter++);
+                    event(events, 2, CompressedTrace.END, counter++);
+                }
+                event(events, 1, CompressedTrace.END, counter++);
+            }
+            event(events, 0, CompressedTrace.END, counter++);
+        }
+
+        final List<CompressedTrace.Run> runs = compress(events);
+
+        assertEquals(events, expand(runs));
+        assertTrue(runs.size() <= 4, "Outer loop is folded into a single run, got " + runs.size());
+    }
+
+    @Test
+    public void expandsNestedLoopsWithVaryingInnerRepetitions() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        for (int outer = 0; outer < 50; outer++) {
+            event(events, 0, CompressedTrace.START, counter++);
+            for (int inner = 0; inner < 3 + outer % 4; inner++) {
+                event(events, 1, CompressedTrace.START, counter++);
+                event(events, 2, CompressedTrace.TAKE, counter++);
+            }
+            event(events, 0, CompressedTrace.END, counter++);
+        }
+
+        assertEquals(events, expand(compress(events)));
+    }
+
+    @Test
+    public void expandsBrokenRepetitions() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        for (int i = 0; i < 10; i++) {
+            event(events, 1, CompressedTrace.START, counter++);
+            event(events, 2, CompressedTrace.START, counter++);
+            event(events, 3, CompressedTrace.START, counter++);
+        }
+
+        // Repetition stops in the middle of the body
+        event(events, 1, CompressedTrace.START, counter++);
+        event(events, 2, CompressedTrace.START, counter++);
+        event(events, 4, CompressedTrace.START, counter++);
+
+        // Same elements, but a different stride
+        for (int i = 0; i < 5; i++) {
+            event(events, 1, CompressedTrace.START, counter);
+            event(events, 2, CompressedTrace.START, counter + 1);
+            counter += 3;
+        }
+
+        // Ends with a partial repetition
+        for (int i = 0; i < 4; i++) {
+            event(events, 5, CompressedTrace.TAKE, counter++);
+        }
+        event(events, 5, CompressedTrace.TAKE, counter + 10);
+
+        assertEquals(events, expand(compress(events)));
+    }
+
+    @Test
+    public void expandsOutOfOrderCounters() {
+
+        final List<List<Long>> events = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            event(events, 1, CompressedTrace.START, 100 - 2 * i);
+            event(events, 1, CompressedTrace.END, 50 + i);
+            event(events, 2, CompressedTrace.TAKE, 7);
+        }
+
+        assertEquals(events, expand(compress(events)));
+    }
+
+    @Test
+    public void expandsLongAperiodicTraces() {
+
+        final Random random = new Random(42);
+        final List<List<Long>> events = new ArrayList<>();
+        long counter = 1;
+        for (int i = 0; i < 5 * CompressedTrace.MAX_PERIOD; i++) {
+            event(events, random.nextInt(8), random.nextInt(3), counter);
+            counter += 1 + random.nextInt(3);
+        }
+
+        assertEquals(events, expand(compress(events)));
+    }
+
+    @Test
+    public void expandsEmptyTrace() {
+        assertEquals(new ArrayList<>(), expand(compress(new ArrayList<>())));
+    }
+
+    private static void event(final List<List<Long>> events, final int elementOrdinal, final int kind, final long counter) {
+        events.add(Arrays.asList((long) elementOrdinal, (long) kind, counter));
+    }
+
+    private static List<CompressedTrace.Run> compress(final List<List<Long>> events) {
+
+        final CompressedTrace trace = new CompressedTrace();
+        for (final List<Long> event : events) {
+            trace.append(event.get(0).intValue(), event.get(1).intValue(), event.get(2));
+        }
+        return trace.getRuns();
+    }
+
+    private static List<List<Long>> expand(final List<CompressedTrace.Run> runs) {
+
+        final List<List<Long>> events = new ArrayList<>();
+        for (final CompressedTrace.Run run : runs) {
+            for (int repetition = 0; repetition < run.getRepeat(); repetition++) {
+                for (int i = 0; i < run.size(); i++) {
+                    event(events, run.getElementOrdinal(i), run.getKind(i),
+                            run.getBase() + repetition * run.getStride() + run.getOffset(i));
+                }
+            }
+        }
+        return events;
+    }
+
+}
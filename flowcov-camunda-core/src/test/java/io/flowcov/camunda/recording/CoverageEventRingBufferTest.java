@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.recording;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CoverageEventRingBufferTest {
+
+    private static final int PRODUCERS = 8;
+
+    private static final int EVENTS_PER_PRODUCER = 50_000;
+
+    @Test
+    public void consumesAllEventsOfConcurrentProducersInOrder() throws Exception {
+
+        final List<long[]> consumed = new ArrayList<>();
+        final int[] nextOrdinals = new int[PRODUCERS];
+        final List<String> errors = new ArrayList<>();
+
+        // Consumed on the single consumer thread, read after flush()
+        final CoverageEventRingBuffer buffer = new CoverageEventRingBuffer(64,
+                (kind, dictionary, elementOrdinal, instanceIdHash, activityInstanceId, rootProcessInstanceId, testMethodName, sequence) -> {
+                    final int producer = (int) instanceIdHash;
+                    if (elementOrdinal != nextOrdinals[producer]++) {
+                        errors.add("Producer " + producer + " event " + elementOrdinal + " out of order");
+                    }
+                    if (!("test" + producer).equals(testMethodName)) {
+                        errors.add("Producer " + producer + " event " + elementOrdinal + " recorded for " + testMethodName);
+                    }
+                    consumed.add(new long[]{sequence, producer});
+                });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+                    buffer.publish(CoverageEventRingBuffer.FLOW_NODE_START, null, i, producer, null, null, "test" + producer);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (final Future<?> producer : producers) {
+            producer.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        buffer.flush();
+
+        assertTrue(errors.isEmpty(), () -> String.join("\n", errors));
+        assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, consumed.size());
+        for (int i = 0; i < consumed.size(); i++) {
+            assertEquals(i + 1, consumed.get(i)[0], "Sequence of event " + i);
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals(EVENTS_PER_PRODUCER, nextOrdinals[p], "Events of producer " + p);
+        }
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        final CoverageEventConsumer ignored = (kind, dictionary, elementOrdinal, instanceIdHash, activityInstanceId,
+                                               rootProcessInstanceId, testMethodName, sequence) -> {
+        };
+        assertEquals(64, new CoverageEventRingBuffer(33, ignored).getCapacity());
+        assertEquals(64, new CoverageEventRingBuffer(64, ignored).getCapacity());
+    }
+
+    @Test
+    public void deliversActivityInstanceIdsOfCollidingHashes() {
+
+        final List<String> activityInstanceIds = new ArrayList<>();
+        final CoverageEventRingBuffer buffer = new CoverageEventRingBuffer(4,
+                (kind, dictionary, elementOrdinal, instanceIdHash, activityInstanceId, rootProcessInstanceId, testMethodName, sequence) ->
+                        activityInstanceIds.add(activityInstanceId));
+
+        buffer.publish(CoverageEventRingBuffer.FLOW_NODE_START, null, 0, 42L, "task:1", "root", "test");
+        buffer.publish(CoverageEventRingBuffer.FLOW_NODE_START, null, 0, 42L, "task:2", "root", "test");
+        buffer.publish(CoverageEventRingBuffer.SEQUENCE_FLOW_TAKE, null, 1, 0L, null, "root", "test");
+        buffer.publish(CoverageEventRingBuffer.FLOW_NODE_END, null, 0, 42L, "task:2", "root", "test");
+        buffer.flush();
+
+        assertEquals(Arrays.asList("task:1", "task:2", null, "task:2"), activityInstanceIds);
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020 FlowSquad GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.flowcov.camunda.util;
+
+import io.flowcov.camunda.api.Build;
+import io.flowcov.camunda.api.bpmn.BpmnModel;
+import io.flowcov.camunda.api.bpmn.BpmnTestClass;
+import io.flowcov.camunda.api.bpmn.BpmnTestMethod;
+import io.flowcov.camunda.api.bpmn.ExecutionPath;
+import io.flowcov.camunda.api.bpmn.FlowNode;
+import io.flowcov.camunda.api.bpmn.SequenceFlow;
+import io.flowcov.camunda.api.bpmn.TraceEvent;
+import io.flowcov.camunda.api.bpmn.TraceRun;
+import io.flowcov.camunda.api.bpmn.TraceStep;
+import io.flowcov.camunda.api.dmn.DmnModel;
+import io.flowcov.camunda.api.dmn.DmnTestClass;
+import io.flowcov.camunda.api.dmn.DmnTestMethod;
+import io.flowcov.camunda.api.dmn.Rule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BinaryReportReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 5, 6})
+    public void readsWhatWasWritten(final int version) throws IOException {
+
+        final Build build = createBuild(version);
+
+        assertEquals(build, writeAndRead(build, version));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4, 5})
+    public void omitsDataMissingInOlderVersions(final int version) throws IOException {
+        assertEquals(createBuild(version), writeAndRead(createBuild(BinaryReportWriter.VERSION), version));
+    }
+
+    @Test
+    public void readsEmptyReport() throws IOException {
+        assertEquals(new Build(), writeAndRead(new Build(), BinaryReportWriter.VERSION));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+
+        final Path reportPath = tempDir.resolve("report.json");
+        Files.write(reportPath, "{}".getBytes());
+
+        assertThrows(IOException.class, () -> new BinaryReportReader(reportPath));
+    }
+
+    private Build writeAndRead(final Build build, final int version) throws IOException {
+
+        final Path reportPath = tempDir.resolve("report-" + version + ".fcov");
+        try (BinaryReportWriter writer = new BinaryReportWriter(reportPath, version)) {
+            for (final BpmnModel model : build.getBpmnModels()) {
+                writer.writeBpmnModel(model);
+            }
+            for (final DmnModel model : build.getDmnModels()) {
+                writer.writeDmnModel(model);
+            }
+        }
+
+        try (BinaryReportReader reader = new BinaryReportReader(reportPath)) {
+            return reader.read();
+        }
+    }
+
+    /**
+     * Creates a build containing all data the given format version is able to store.
+     */
+    private static Build createBuild(final int version) {
+
+        final BpmnTestMethod tracedMethod = BpmnTestMethod.builder()
+                .name("traced")
+                .flowNodes(new ArrayList<>(Arrays.asList(
+                        FlowNode.builder().key("start").type("startEvent").executionStartCounter(1L).executionEndCounter(2L).build(),
+                        FlowNode.builder().key("task").type("userTask").executionStartCounter(4L).build(),
+                        FlowNode.builder().key("start").type("startEvent").executionStartCounter(3L).executionEndCounter(9L).build())))
+                .sequenceFlows(new ArrayList<>(Arrays.asList(
+                        SequenceFlow.builder().key("flow1").instanceId("42").executionStartCounter(3).build(),
+                        SequenceFlow.builder().key("flow2").executionStartCounter(1).build())))
+                .paths(version >= 6 ? new ArrayList<>(Collections.singletonList(ExecutionPath.builder()
+                        .fingerprint("00ff")
+                        .completed(false)
+                        .count(2)
+                        .elements(new ArrayList<>(Arrays.asList("start", "flow1", "task")))
+                        .build())) : null)
+                .build();
+
+        final BpmnTestMethod countedMethod = BpmnTestMethod.builder()
+                .name("counted")
+                .flowNodes(new ArrayList<>(Collections.singletonList(
+                        FlowNode.builder().key("task").type("userTask")
+                                .startCount(version >= 4 ? 3L : null)
+                                .endCount(version >= 4 ? 0L : null)
+                                .build())))
+                .sequenceFlows(new ArrayList<>(Collections.singletonList(
+                        SequenceFlow.builder().key("flow1").executionStartCounter(0).takeCount(version >= 4 ? 3L : null).build())))
+                .traceRuns(version >= 5 ? new ArrayList<>(Arrays.asList(
+                        TraceRun.builder().executionCounter(1).stride(0).repeat(1)
+                                .steps(new ArrayList<>(Collections.singletonList(
+                                        TraceStep.builder().key("start").event(TraceEvent.START).offset(0).build())))
+                                .build(),
+                        TraceRun.builder().executionCounter(2).stride(3).repeat(3)
+                                .steps(new ArrayList<>(Arrays.asList(
+                                        TraceStep.builder().key("task").event(TraceEvent.START).offset(0).build(),
+                                        TraceStep.builder().key("task").event(TraceEvent.END).offset(-1).build(),
+                                        TraceStep.builder().key("flow1").event(TraceEvent.TAKE).offset(2).build())))
+                                .build())) : null)
+                .build();
+
+        final BpmnModel bpmnModel = BpmnModel.builder()
+                .bpmnXml("<definitions/>")
+                .bpmnXmlRef(version >= 2 ? "models/abc.bpmn" : null)
+                .name("Process")
+                .processDefinitionKey("process")
+                .totalNodeCount(5)
+                .hash(-17)
+                .testClasses(new ArrayList<>(Collections.singletonList(BpmnTestClass.builder()
+                        .name("ProcessTest")
+                        .testMethods(new ArrayList<>(Arrays.asList(tracedMethod, countedMethod)))
+                        .paths(version >= 6 ? new ArrayList<>() : null)
+                        .build())))
+                .build();
+
+        final Map<String, Long> ruleHitCounts = new LinkedHashMap<>();
+        if (version >= 3) {
+            ruleHitCounts.put("rule1", 2L);
+            ruleHitCounts.put("rule2", 0L);
+        }
+
+        final DmnModel dmnModel = DmnModel.builder()
+                .dmnXml("<definitions/>")
+                .dmnXmlRef(version >= 2 ? "models/def.dmn" : null)
+                .name("Decision")
+                .decisionKey("decision")
+                .version("1.0")
+                .ruleCount(2)
+                .hash(12345)
+                .testClasses(new ArrayList<>(Collections.singletonList(DmnTestClass.builder()
+                        .name("ProcessTest")
+                        .executionEndTime(LocalDateTime.of(2020, 5, 17, 10, 30, 15))
+                        .testMethods(new ArrayList<>(Collections.singletonList(DmnTestMethod.builder()
+                                .name("traced")
+                                .rules(new ArrayList<>(Collections.singletonList(
+                                        Rule.builder().key("rule1").timestamp(7).hitCount(version >= 3 ? 2 : 0).build())))
+                                .build())))
+                        .ruleHitCounts(ruleHitCounts)
+                        .build())))
+                .build();
+
+        return new Build(new ArrayList<>(Collections.singletonList(bpmnModel)), new ArrayList<>(Collections.singletonList(dmnModel)));
+    }
+
+}